@@ -0,0 +1,66 @@
+package cs224n.assignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * PCFGParser.getBestParse on fixture sentences up to well past the
+ * fixture's own lengths, with probability-space and log-space charts, and
+ * with the per-thread reused chart or a fresh chart for every sentence.
+ * Run with "-prof gc" for the bytes allocated per parse
+ * (gc.alloc.rate.norm), which with reuse is little more than the output
+ * tree; "ant check" runs AllocationCheck, which fails if it is not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChartBench {
+
+  @Param({"10", "30", "50"})
+  public int length;
+
+  @Param({"false", "true"})
+  public boolean logSpace;
+
+  @Param({"true", "false"})
+  public boolean reuseCharts;
+
+  private PCFGParser parser;
+  private List<String> sentence;
+
+  @Setup
+  public void setUp() {
+    List<Tree<String>> trees = new ArrayList<Tree<String>>(Fixture.readTestTrees());
+    List<Tree<String>> trainTrees = Fixture.readTrainTrees();
+    trees.addAll(trainTrees);
+    sentence = Fixture.getSentence(trees, length);
+    parser = new PCFGParser();
+    parser.setLogSpace(logSpace);
+    parser.setChartReuse(reuseCharts);
+    parser.train(trainTrees);
+  }
+
+  @Benchmark
+  public Tree<String> getBestParse() {
+    return parser.getBestParse(sentence);
+  }
+}
@@ -0,0 +1,91 @@
+package cs224n.assignment;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * Where probability-space charts underflow and log-space charts do not,
+ * and what each costs in heap.  Sentences are of words the fixture never
+ * saw, which the lexicon scores as unknown words: their low scores make a
+ * probability-space root score underflow at a length the fixture's own
+ * grammar still parses, which its sentences never reach.  On the bundled
+ * fixture that is between 80 and 90 words; log space still parses at 200.
+ *
+ * Besides the time per parse, each run reports two counters: parsed, 1 if
+ * the parser found a parse and 0 if it returned a bare ROOT, and
+ * heapKilobytes, the live heap a parse leaves behind, measured once in
+ * setup between full collections.  With the chart reused, that is the
+ * chart, so it is the peak the parse needs beyond the trained model.
+ * Counters are summed over measurement iterations, so there is only one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 1, time = 3)
+@Fork(1)
+public class ChartUnderflowBench {
+
+  @Param({"60", "80", "90", "100", "200"})
+  public int length;
+
+  @Param({"false", "true"})
+  public boolean logSpace;
+
+  private PCFGParser parser;
+  private List<String> sentence;
+  private long heapKilobytes;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Outcome {
+    public long parsed;
+    public long heapKilobytes;
+  }
+
+  @Setup
+  public void setUp() {
+    sentence = new ArrayList<String>();
+    for (int i = 0; i < length; i++) {
+      sentence.add("unseen" + i);
+    }
+    parser = new PCFGParser();
+    parser.setLogSpace(logSpace);
+    parser.train(Fixture.readTrainTrees());
+    long before = liveHeap();
+    parser.getBestParse(sentence);
+    heapKilobytes = (liveHeap() - before) >> 10;
+  }
+
+  private static long liveHeap() {
+    System.gc();
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  @Benchmark
+  public Tree<String> getBestParse(Outcome outcome) {
+    Tree<String> parse = parser.getBestParse(sentence);
+    outcome.parsed = parse.isLeaf() ? 0 : 1;
+    outcome.heapKilobytes = heapKilobytes;
+    return parse;
+  }
+}
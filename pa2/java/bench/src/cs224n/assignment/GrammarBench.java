@@ -0,0 +1,56 @@
+package cs224n.assignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * Grammar construction from the annotated training trees: tallying the
+ * rules, normalizing them and computing the unary closure, followed by
+ * compiling the result to a CompiledGrammar as train() does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrammarBench {
+
+  private List<Tree<String>> annotatedTrees;
+  private Lexicon lexicon;
+
+  @Setup
+  public void setUp() {
+    annotatedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : Fixture.readTrainTrees()) {
+      annotatedTrees.add(TreeAnnotations.annotateTree(tree, 1, -1));
+    }
+    lexicon = new Lexicon(annotatedTrees);
+  }
+
+  @Benchmark
+  public Grammar buildGrammar() {
+    return new Grammar(annotatedTrees);
+  }
+
+  @Benchmark
+  public CompiledGrammar compileGrammar() {
+    Grammar grammar = new Grammar(annotatedTrees);
+    return new CompiledGrammar(grammar, PCFGParser.buildSymbolIndex(grammar, lexicon));
+  }
+}
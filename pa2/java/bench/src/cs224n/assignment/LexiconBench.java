@@ -0,0 +1,58 @@
+package cs224n.assignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * Lexicon.scoreTagging for every word of the test trees against every tag,
+ * which is what filling the preterminal cells costs without a TagDictionary.
+ * Reported per pass over the test words.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexiconBench {
+
+  private Lexicon lexicon;
+  private List<String> words;
+  private List<String> tags;
+
+  @Setup
+  public void setUp() {
+    lexicon = new Lexicon(Fixture.readTrainTrees());
+    words = new ArrayList<String>();
+    for (Tree<String> tree : Fixture.readTestTrees()) {
+      words.addAll(tree.getYield());
+    }
+    tags = new ArrayList<String>(lexicon.getAllTags());
+  }
+
+  @Benchmark
+  public double scoreTagging() {
+    double sum = 0;
+    for (String word : words) {
+      for (String tag : tags) {
+        sum += lexicon.scoreTagging(word, tag);
+      }
+    }
+    return sum;
+  }
+}
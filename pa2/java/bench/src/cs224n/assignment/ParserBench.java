@@ -0,0 +1,83 @@
+package cs224n.assignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * PCFGParser on one fixture sentence of each length: a whole getBestParse,
+ * and the binary and unary passes over the top cell of a chart already
+ * filled for the sentence.  Re-running a pass over a filled cell finds every entry
+ * already present, so those two measure rule iteration and scoring without
+ * the cost of inserting new symbols.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench {
+
+  @Param({"5", "10", "20", "30"})
+  public int length;
+
+  private PCFGParser parser;
+  private List<String> sentence;
+  private Chart chart;
+
+  @Setup
+  public void setUp() {
+    // any fixture sentence will do for timing, so look in the training trees too
+    List<Tree<String>> trees = new ArrayList<Tree<String>>(Fixture.readTestTrees());
+    List<Tree<String>> trainTrees = Fixture.readTrainTrees();
+    trees.addAll(trainTrees);
+    sentence = Fixture.getSentence(trees, length);
+    parser = new PCFGParser();
+    parser.train(trainTrees);
+    chart = new Chart(sentence.size(), parser.getCompiledGrammar().getNumSymbols());
+    int len = sentence.size();
+    for (int span = 1; span <= len; span++) {
+      for (int begin = 0; begin + span <= len; begin++) {
+        if (span == 1) {
+          parser.getPretermRules(sentence, begin, chart);
+        } else {
+          parser.getBinaryRules(begin, begin + span, chart);
+        }
+        parser.handleUnaries(begin, begin + span, chart);
+      }
+    }
+  }
+
+  @Benchmark
+  public Tree<String> getBestParse() {
+    return parser.getBestParse(sentence);
+  }
+
+  @Benchmark
+  public Chart getBinaryRules() {
+    parser.getBinaryRules(0, sentence.size(), chart);
+    return chart;
+  }
+
+  @Benchmark
+  public Chart handleUnaries() {
+    parser.handleUnaries(0, sentence.size(), chart);
+    return chart;
+  }
+}
@@ -0,0 +1,81 @@
+package cs224n.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import cs224n.assignment.PCFGParserTester;
+import cs224n.ling.Tree;
+
+/**
+ * The treebank the JMH benchmarks run on: by default the small fixture in
+ * bench/data/miniTest, so results need no network and can be compared
+ * across commits.  Set the system property bench.fixture to another
+ * directory laid out the same way (files 1-3 for training, 4 for test) to
+ * run on other data.
+ *
+ * The fixture is synthetic, since the Penn Treebank cannot be shipped:
+ * 150 trees in each training file and 60 in the test file, sampled with a
+ * fixed seed from a hand-written toy PCFG of about 30 rules (S, NP, VP, PP,
+ * SBAR and ADJP over the usual WSJ tags) and a vocabulary of a few words per
+ * tag.  Its sentences are short and its grammar small, so it exercises
+ * every code path but not realistic chart sizes.  For those, sample a
+ * fixture of the same layout from the real treebank with TreebankGenerator:
+ *
+ *   java cs224n.assignment.TreebankGenerator -path /afs/ir/class/cs224n/data/pa2
+ *       -data treebank -out /tmp/fixture/miniTest -trees 510 -treesPerFile 150
+ *
+ * and run with -Dbench.fixture=/tmp/fixture/miniTest.
+ */
+public class Fixture {
+
+  public static String getPath() {
+    return System.getProperty("bench.fixture", "bench/data/miniTest");
+  }
+
+  public static List<File> getFiles() {
+    List<File> files = new ArrayList<File>();
+    for (int n = 1; n <= 4; n++) {
+      files.add(new File(getPath(), String.format("wsj_%04d.mrg", n)));
+    }
+    return files;
+  }
+
+  public static List<Tree<String>> readTrainTrees() {
+    return PCFGParserTester.readTrees(getPath(), 1, 3);
+  }
+
+  public static List<Tree<String>> readTestTrees() {
+    return PCFGParserTester.readTrees(getPath(), 4, 4);
+  }
+
+  /**
+   * Returns the first sentence of the trees with exactly the given length
+   * if there is one, and otherwise whole sentences coordinated the way the
+   * fixture coordinates them, "S1 . , and S2 . , and S3 .", up to that
+   * length.  Sentences are added while they fit, so the result can fall a
+   * little short of the length, but never exceeds it.
+   */
+  public static List<String> getSentence(List<Tree<String>> trees, int length) {
+    for (Tree<String> tree : trees) {
+      if (tree.getYield().size() == length) return tree.getYield();
+    }
+    List<String> sentence = new ArrayList<String>();
+    boolean added = true;
+    while (added && sentence.size() < length) {
+      added = false;
+      for (Tree<String> tree : trees) {
+        List<String> words = tree.getYield();
+        int joined = sentence.isEmpty() ? words.size() : sentence.size() + 2 + words.size();
+        if (joined > length) continue;
+        if (!sentence.isEmpty()) {
+          sentence.add(",");
+          sentence.add("and");
+        }
+        sentence.addAll(words);
+        added = true;
+      }
+    }
+    return sentence;
+  }
+}
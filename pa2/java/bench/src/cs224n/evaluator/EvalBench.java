@@ -0,0 +1,77 @@
+package cs224n.evaluator;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.assignment.PCFGParser;
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * LabeledConstituentEval.evaluate over the fixture's test trees, each
+ * compared with the parse PCFGParser gives it, with the evaluator set up
+ * as PCFGParserTester sets it up.  Per-sentence output goes to a discarding
+ * writer.  Reported per pass over the test set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBench {
+
+  private List<Tree<String>> guesses;
+  private List<Tree<String>> golds;
+  private PrintWriter discard;
+
+  @Setup
+  public void setUp() {
+    PCFGParser parser = new PCFGParser();
+    parser.train(Fixture.readTrainTrees());
+    golds = Fixture.readTestTrees();
+    guesses = new ArrayList<Tree<String>>();
+    for (Tree<String> gold : golds) {
+      guesses.add(parser.getBestParse(gold.getYield()));
+    }
+    discard = new PrintWriter(new Writer() {
+      public void write(char[] buf, int off, int len) {
+      }
+
+      public void flush() {
+      }
+
+      public void close() {
+      }
+    });
+  }
+
+  @Benchmark
+  public double evaluate() {
+    EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval =
+      new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+          Collections.singleton("ROOT"),
+          new HashSet<String>(Arrays.asList(new String[] {"''", "``", ".", ":", ","})));
+    for (int i = 0; i < golds.size(); i++) {
+      eval.evaluate(guesses.get(i), golds.get(i), discard);
+    }
+    return eval.getF1();
+  }
+}
@@ -0,0 +1,75 @@
+package cs224n.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+
+/**
+ * Tokenizing the fixture's .mrg files into trees with Trees.PennTreeReader
+ * and with PennTreeByteReader.  The files are read into memory once in
+ * setup, so only parsing the bracketed text is measured; reported per
+ * pass over all the files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeReaderBench {
+
+  private List<byte[]> files;
+  private List<String> texts;
+
+  @Setup
+  public void setUp() throws IOException {
+    files = new ArrayList<byte[]>();
+    texts = new ArrayList<String>();
+    for (File file : Fixture.getFiles()) {
+      byte[] bytes = PennTreeByteReader.readFully(file);
+      files.add(bytes);
+      texts.add(new String(bytes, "UTF-8"));
+    }
+  }
+
+  @Benchmark
+  public void pennTreeReader(Blackhole blackhole) {
+    for (String text : texts) {
+      drain(new Trees.PennTreeReader(new StringReader(text)), blackhole);
+    }
+  }
+
+  @Benchmark
+  public void pennTreeByteReader(Blackhole blackhole) {
+    PennTreeByteReader.SymbolTable symbols = new PennTreeByteReader.SymbolTable();
+    for (byte[] bytes : files) {
+      drain(new PennTreeByteReader(bytes, symbols), blackhole);
+    }
+  }
+
+  private static void drain(Iterator<Tree<String>> reader, Blackhole blackhole) {
+    while (reader.hasNext()) {
+      blackhole.consume(reader.next());
+    }
+  }
+}
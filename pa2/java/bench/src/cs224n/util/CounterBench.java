@@ -0,0 +1,71 @@
+package cs224n.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cs224n.benchmark.Fixture;
+import cs224n.ling.Tree;
+
+/**
+ * The HashMap-backed Counter against OpenAddressingCounter on the words of
+ * the fixture's training trees, which have the skewed frequencies the
+ * Lexicon counts: counting every word into a fresh counter, and looking
+ * every word up in a counter already holding them.  Reported per pass over
+ * the words.  Each counter runs in its own fork, so neither is measured
+ * through call sites compiled for the other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBench {
+
+  @Param({"hash", "open"})
+  public String counter;
+
+  private List<String> words;
+  private Counter<String> filled;
+
+  @Setup
+  public void setUp() {
+    words = new ArrayList<String>();
+    for (Tree<String> tree : Fixture.readTrainTrees()) {
+      words.addAll(tree.getYield());
+    }
+    filled = increment();
+  }
+
+  @Benchmark
+  public Counter<String> increment() {
+    Counter<String> counts = counter.equals("open")
+      ? new OpenAddressingCounter<String>() : new Counter<String>();
+    for (String word : words) {
+      counts.incrementCount(word, 1.0);
+    }
+    return counts;
+  }
+
+  @Benchmark
+  public double lookup() {
+    double sum = 0;
+    for (String word : words) {
+      sum += filled.getCount(word);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,223 @@
+package cs224n.assignment;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cs224n.ling.Tree;
+import cs224n.util.IntIndexedPriorityQueue;
+
+/**
+ * Best-first (A*) parser over the same grammar and lexicon as PCFGParser.
+ * Edges (span, symbol) are popped from an agenda ordered by log inside score
+ * plus an outside estimate, and parsing stops as soon as ROOT over the whole
+ * sentence is popped, instead of filling every span.
+ *
+ * The outside estimate of a span is the product, over the words outside it,
+ * of each word's best tagging score.  Every rule probability is at most one,
+ * so this never underestimates the true outside score, and a sibling's inside
+ * score never exceeds the estimate for its words.  The estimate is therefore
+ * admissible and consistent, and the first ROOT popped is the Viterbi parse.
+ */
+public class AStarParser implements Parser {
+
+  private final PCFGParser exhaustiveParser = new PCFGParser();
+  private final AtomicLong edgesPopped = new AtomicLong();
+  private final AtomicLong edgesPushed = new AtomicLong();
+  private final ThreadLocal<IntIndexedPriorityQueue> agendas = new ThreadLocal<IntIndexedPriorityQueue>();
+
+  /**
+   * Train the underlying grammar and lexicon exactly as PCFGParser does.
+   * @param trainTrees list of trees to train on
+   */
+  public void train(List<Tree<String>> trainTrees) {
+    exhaustiveParser.train(trainTrees);
+  }
+
+  /**
+   * The CKY parser sharing this parser's grammar, for comparing how much of
+   * the chart each search builds.
+   */
+  public PCFGParser getExhaustiveParser() {
+    return exhaustiveParser;
+  }
+
+  /**
+   * Total number of edges taken off the agenda over all sentences parsed so far.
+   */
+  public long getEdgesPopped() {
+    return edgesPopped.get();
+  }
+
+  /**
+   * Total number of agenda insertions and promotions.
+   */
+  public long getEdgesPushed() {
+    return edgesPushed.get();
+  }
+
+  /**
+   * Parse a sentence best-first.  The chart is the exhaustive parser's
+   * per-thread workspace, so it follows its setLogSpace() and
+   * setChartReuse() settings, and the agenda is reused the same way.
+   * @param sentence sentence to parse
+   * @return most probable parse tree of sentence
+   */
+  public Tree<String> getBestParse(List<String> sentence) {
+    TagDictionary tagDictionary = exhaustiveParser.getTagDictionary();
+    CompiledGrammar grammar = exhaustiveParser.getCompiledGrammar();
+    int numSymbols = grammar.getNumSymbols();
+    int len = sentence.size();
+    int root = grammar.getSymbols().indexOf("ROOT");
+    if (len == 0) return new Tree<String>("ROOT");
+
+    // log outside estimate of [begin, end) is the sum of prefix[begin] and
+    // prefix[len] - prefix[end], from each word's best tag score
+    TagDictionary.Taggings[] taggings = new TagDictionary.Taggings[len];
+    double[] prefix = new double[len + 1];
+    for (int i = 0; i < len; i++) {
+      taggings[i] = tagDictionary.getTaggings(sentence.get(i));
+      double best = Double.NEGATIVE_INFINITY;
+      for (double logScore : taggings[i].getLogScores()) {
+        best = Math.max(best, logScore);
+      }
+      prefix[i + 1] = prefix[i] + best;
+    }
+
+    Chart chart = exhaustiveParser.getWorkspace(len);
+    boolean logSpace = chart.isLogSpace();
+    long numEdges = (long) len * (len + 1) * numSymbols;
+    if (numEdges > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Sentence of " + len + " words has too many edges for A*");
+    }
+    IntIndexedPriorityQueue agenda = agendas.get();
+    if (agenda == null) {
+      agenda = new IntIndexedPriorityQueue((int) numEdges);
+      agendas.set(agenda);
+    } else {
+      agenda.clear((int) numEdges);
+    }
+    Search search = new Search(chart, agenda, prefix, numSymbols);
+
+    for (int i = 0; i < len; i++) {
+      int[] tags = taggings[i].getTags();
+      double[] scores = logSpace ? taggings[i].getLogScores() : taggings[i].getScores();
+      for (int t = 0; t < tags.length; t++) {
+        if (chart.relax(i, i + 1, tags[t], scores[t], -1, -1, -1)) {
+          search.push(i, i + 1, tags[t]);
+        }
+      }
+    }
+
+    int[] pairLeft = grammar.getPairLeftChildren();
+    int[] pairRight = grammar.getPairRightChildren();
+    int[] pairOffsets = grammar.getPairOffsets();
+    int[] leftOffsets = grammar.getLeftOffsets();
+    int[] rightOffsets = grammar.getRightOffsets();
+    int[] pairsByRight = grammar.getPairsByRight();
+    int[] parents = grammar.getBinaryParents();
+    double[] ruleScores = logSpace ? grammar.getBinaryLogScores() : grammar.getBinaryScores();
+    int[] closureOffsets = grammar.getClosureOffsets();
+    int[] closureParents = grammar.getClosureParents();
+    double[] closureScores = logSpace ? grammar.getClosureLogScores() : grammar.getClosureScores();
+
+    long popped = 0;
+    boolean found = false;
+    while (agenda.hasNext()) {
+      int edge = agenda.next();
+      popped++;
+      int X = edge % numSymbols;
+      int cell = edge / numSymbols;
+      int begin = cell / (len + 1);
+      int end = cell % (len + 1);
+      if (begin == 0 && end == len && X == root) {
+        found = true;
+        break;
+      }
+      double score = logSpace ? chart.getLogScore(begin, end, X) : chart.getScore(begin, end, X);
+
+      // unary chains above X
+      for (int u = closureOffsets[X]; u < closureOffsets[X + 1]; u++) {
+        int P = closureParents[u];
+        double parentScore = logSpace ? score + closureScores[u] : score * closureScores[u];
+        if (!search.isFinished(begin, end, P) && chart.relax(begin, end, P, parentScore, -1, X, u)) {
+          search.push(begin, end, P);
+        }
+      }
+
+      // X as a left child, with finished right siblings starting at end
+      for (int pair = leftOffsets[X]; pair < leftOffsets[X + 1]; pair++) {
+        int C = pairRight[pair];
+        for (int right = end + 1; right <= len; right++) {
+          if (!search.isFinished(end, right, C)) continue;
+          double childScore = logSpace
+            ? score + chart.getLogScore(end, right, C) : score * chart.getScore(end, right, C);
+          for (int r = pairOffsets[pair]; r < pairOffsets[pair + 1]; r++) {
+            int P = parents[r];
+            double parentScore = logSpace ? childScore + ruleScores[r] : childScore * ruleScores[r];
+            if (!search.isFinished(begin, right, P) && chart.relax(begin, right, P, parentScore, end, X, C)) {
+              search.push(begin, right, P);
+            }
+          }
+        }
+      }
+
+      // X as a right child, with finished left siblings ending at begin
+      for (int k = rightOffsets[X]; k < rightOffsets[X + 1]; k++) {
+        int pair = pairsByRight[k];
+        int B = pairLeft[pair];
+        for (int left = 0; left < begin; left++) {
+          if (!search.isFinished(left, begin, B)) continue;
+          double childScore = logSpace
+            ? chart.getLogScore(left, begin, B) + score : chart.getScore(left, begin, B) * score;
+          for (int r = pairOffsets[pair]; r < pairOffsets[pair + 1]; r++) {
+            int P = parents[r];
+            double parentScore = logSpace ? childScore + ruleScores[r] : childScore * ruleScores[r];
+            if (!search.isFinished(left, end, P) && chart.relax(left, end, P, parentScore, begin, B, X)) {
+              search.push(left, end, P);
+            }
+          }
+        }
+      }
+    }
+    edgesPopped.addAndGet(popped);
+    edgesPushed.addAndGet(search.pushed);
+
+    if (!found) return new Tree<String>("ROOT");
+    return TreeAnnotations.unAnnotateTree(exhaustiveParser.buildTree(sentence, chart));
+  }
+
+  /* One sentence's agenda, whose keys number the edges (span, symbol). */
+  private static class Search {
+    final Chart chart;
+    final IntIndexedPriorityQueue agenda;
+    final double[] prefix;
+    final int numSymbols;
+    final int cells;
+    long pushed;
+
+    Search(Chart chart, IntIndexedPriorityQueue agenda, double[] prefix, int numSymbols) {
+      this.chart = chart;
+      this.agenda = agenda;
+      this.prefix = prefix;
+      this.numSymbols = numSymbols;
+      this.cells = prefix.length;
+    }
+
+    int edge(int begin, int end, int symbol) {
+      return (begin * cells + end) * numSymbols + symbol;
+    }
+
+    /* Whether the edge has been popped, so its best score is final. */
+    boolean isFinished(int begin, int end, int symbol) {
+      return agenda.wasRemoved(edge(begin, end, symbol));
+    }
+
+    /* Queue an edge (or raise its priority) after its inside score improved. */
+    void push(int begin, int end, int symbol) {
+      int len = cells - 1;
+      double outside = prefix[begin] + (prefix[len] - prefix[end]);
+      agenda.promote(edge(begin, end, symbol), chart.getLogScore(begin, end, symbol) + outside);
+      pushed++;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package cs224n.assignment;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cs224n.ling.Tree;
+import cs224n.util.CommandLineUtils;
+
+/**
+ * Checks that a warmed-up PCFGParser allocates almost nothing beyond the
+ * trees it returns.  The parser is trained and run over the test sentences
+ * a few times, so that its per-thread chart has grown to the longest of
+ * them, and then each sentence is parsed once more between readings of
+ * the thread's allocated-bytes counter (com.sun.management.ThreadMXBean).
+ * The check fails, with exit status 1, if any parse allocates more than
+ * -maxBytesPerWord bytes per word.  The bound leaves room for the output
+ * tree and its binarized form, about 1.5 kilobytes per word, but a fresh
+ * chart for every sentence already breaks it on every sentence of the
+ * small fixture.
+ *
+ * Options:
+ *
+ *   -path, -data       treebank, as for PCFGParserTester (default the
+ *                      benchmark fixture, bench/data and miniTest)
+ *   -maxLength         longest test sentence to parse
+ *   -logSpace          parse in log space
+ *   -coarseToFine      coarse-to-fine pruning threshold, 0 for none
+ *   -reuseCharts       reuse the per-thread chart (false shows the check failing)
+ *   -warmup            passes over the test sentences before measuring
+ *   -maxBytesPerWord   bound on the bytes a parse may allocate per word
+ */
+public class AllocationCheck {
+
+  public static void main(String[] args) {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put("-path",            "bench/data");
+    options.put("-data",            "miniTest");
+    options.put("-maxLength",       "40");
+    options.put("-logSpace",        "false");
+    options.put("-coarseToFine",    "0");
+    options.put("-reuseCharts",     "true");
+    options.put("-warmup",          "3");
+    options.put("-maxBytesPerWord", "3072");
+    options.putAll(CommandLineUtils.simpleCommandLineParser(args));
+    int maxLength = Integer.parseInt(options.get("-maxLength"));
+    long maxBytesPerWord = Long.parseLong(options.get("-maxBytesPerWord"));
+
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      throw new IllegalStateException("This JVM does not count allocated bytes per thread");
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    allocations.setThreadAllocatedMemoryEnabled(true);
+    long thread = Thread.currentThread().getId();
+
+    PCFGParserTester.TrainTest data = PCFGParserTester.loadTrainTest(options);
+    PCFGParser parser = new PCFGParser();
+    parser.setLogSpace(Boolean.parseBoolean(options.get("-logSpace")));
+    parser.setCoarseToFine(Double.parseDouble(options.get("-coarseToFine")));
+    parser.setChartReuse(Boolean.parseBoolean(options.get("-reuseCharts")));
+    parser.train(data.trainTrees);
+
+    int warmup = Integer.parseInt(options.get("-warmup"));
+    for (int pass = 0; pass < warmup; pass++) {
+      for (Tree<String> tree : data.testTrees) {
+        List<String> sentence = tree.getYield();
+        if (sentence.size() <= maxLength) parser.getBestParse(sentence);
+      }
+    }
+
+    int parses = 0;
+    int failures = 0;
+    long totalBytes = 0;
+    long totalWords = 0;
+    double worstBytesPerWord = 0;
+    for (Tree<String> tree : data.testTrees) {
+      List<String> sentence = tree.getYield();
+      if (sentence.isEmpty() || sentence.size() > maxLength) continue;
+      long before = allocations.getThreadAllocatedBytes(thread);
+      parser.getBestParse(sentence);
+      long bytes = allocations.getThreadAllocatedBytes(thread) - before;
+      double bytesPerWord = (double) bytes / sentence.size();
+      if (bytesPerWord > maxBytesPerWord) {
+        System.out.println("Parse of " + sentence.size() + " words allocated " + bytes + " bytes");
+        failures++;
+      }
+      worstBytesPerWord = Math.max(worstBytesPerWord, bytesPerWord);
+      totalBytes += bytes;
+      totalWords += sentence.size();
+      parses++;
+    }
+
+    System.out.printf("%d parses allocated %.0f bytes per word on average, %.0f at most (bound %d)%n",
+        parses, (double) totalBytes / Math.max(totalWords, 1), worstBytesPerWord, maxBytesPerWord);
+    if (failures > 0) {
+      System.out.println(failures + " of " + parses + " parses exceeded the bound");
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package cs224n.assignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cs224n.ling.Tree;
+
+/**
+ * Batch entry point next to Parser.getBestParse: parses a list of sentences
+ * on a fixed pool of worker threads and returns the trees in input order.
+ * The wrapped parser must already be trained, and its getBestParse must be
+ * safe to call from several threads at once.  PCFGParser only reads its
+ * trained Grammar and Lexicon while parsing, so they are shared by all
+ * workers.
+ */
+public class BatchParser {
+
+  private final Parser parser;
+  private final ExecutorService pool;
+  private final int numThreads;
+
+  /**
+   * @param parser trained parser to run on every sentence
+   * @param numThreads number of worker threads; zero or less uses one per available processor
+   */
+  public BatchParser(Parser parser, int numThreads) {
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    this.parser = parser;
+    this.numThreads = numThreads;
+    this.pool = Executors.newFixedThreadPool(numThreads);
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  /**
+   * Parse every sentence in the batch.
+   * @param sentences sentences to parse
+   * @return the best parse of each sentence, in the same order as the input
+   */
+  public List<Tree<String>> parseAll(List<List<String>> sentences) {
+    return parseAll(sentences, null);
+  }
+
+  /**
+   * Parse every sentence in the batch, timing each parse.
+   * @param sentences sentences to parse
+   * @param parseNanos if not null, receives the wall time of each sentence's
+   *        getBestParse call, in input order; must be as long as sentences
+   * @return the best parse of each sentence, in the same order as the input
+   */
+  public List<Tree<String>> parseAll(List<List<String>> sentences, final long[] parseNanos) {
+    List<Future<Tree<String>>> futures = new ArrayList<Future<Tree<String>>>(sentences.size());
+    for (int i = 0; i < sentences.size(); i++) {
+      final List<String> sentence = sentences.get(i);
+      final int index = i;
+      futures.add(pool.submit(new Callable<Tree<String>>() {
+        public Tree<String> call() {
+          if (parseNanos == null) {
+            return parser.getBestParse(sentence);
+          }
+          long start = System.nanoTime();
+          Tree<String> parse = parser.getBestParse(sentence);
+          parseNanos[index] = System.nanoTime() - start;
+          return parse;
+        }
+      }));
+    }
+    List<Tree<String>> parses = new ArrayList<Tree<String>>(sentences.size());
+    try {
+      for (Future<Tree<String>> future : futures) {
+        parses.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return parses;
+  }
+
+  /**
+   * Stops the worker threads once queued parses finish.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,412 @@
+package cs224n.assignment;
+
+import java.util.Arrays;
+
+/**
+ * Dense CKY chart keyed by integer symbol ids.  Scores live in primitive
+ * arrays indexed by [begin][end][symbol], and each entry keeps a compact
+ * backpointer made of a split point and the ids of its children:
+ *
+ *   binary entry:      split >= 0, left and right child symbols
+ *   unary entry:       split == -1, left is the child symbol in the same span
+ *                      and right is the CompiledGrammar closure rule applied
+ *   preterminal entry: split == -1, left == -1 (the child is the word itself)
+ *
+ * The three fields are packed into one long per entry, which limits a chart
+ * to MAX_LENGTH words and child ids (symbols and closure rules) to below
+ * MAX_ID.
+ *
+ * A score of zero means the symbol is absent from the span.  Each span also
+ * keeps the list of symbols it contains, and the same set as a bitset over
+ * symbol ids, so the parser never scans the whole symbol range and can
+ * intersect a span's contents with sets of grammar symbols a word at a time.
+ *
+ * In log-space mode scores are log probabilities held as floats, so long
+ * sentences do not underflow.  An entry then takes 12 bytes (a float score
+ * and a backpointer) instead of 16, plus a bit of span bitset in both.  An
+ * absent symbol then has score negative infinity, relax() and prune() take
+ * log scores, and getScores() is replaced by getLogScores().
+ *
+ * A chart can be reused for later sentences no longer than the one it was
+ * allocated for: reset() clears only the entries the last sentence filled.
+ *
+ * All state is held per span, so different spans may be filled by different
+ * threads at the same time as long as each span has a single writer and
+ * readers wait until the spans they read are complete.
+ */
+public class Chart {
+
+  /* Bits of each child id in a packed backpointer; the split takes the rest. */
+  private static final int ID_BITS = 25;
+  private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+  /** Longest sentence a chart can hold. */
+  public static final int MAX_LENGTH = (1 << (64 - 2 * ID_BITS)) - 1;
+
+  /** Bound on the symbol and closure rule ids a backpointer can hold. */
+  public static final int MAX_ID = (int) ID_MASK;
+
+  private final int capacity;
+  private final int numSymbols;
+  private int length;
+
+  private final boolean logSpace;
+  private final double[][][] scores;
+  private final float[][][] logScores;
+  private final long[][][] backpointers;
+
+  private final int[][][] symbols;
+  private final int[][] symbolCounts;
+  private final long[][][] members;
+
+  private boolean[][][] allowed;
+  private int[] projection;
+
+  private final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+  /**
+   * Allocate a probability-space chart for a sentence of the given length.
+   * @param length number of words in the sentence
+   * @param numSymbols size of the symbol index
+   */
+  public Chart(int length, int numSymbols) {
+    this(length, numSymbols, false);
+  }
+
+  /**
+   * Allocate a chart for a sentence of the given length.
+   * @param length number of words in the sentence
+   * @param numSymbols size of the symbol index
+   * @param logSpace whether to hold float log probabilities instead of double probabilities
+   */
+  public Chart(int length, int numSymbols, boolean logSpace) {
+    if (length > MAX_LENGTH || numSymbols > MAX_ID) {
+      throw new IllegalArgumentException("Chart of " + length + " words and " + numSymbols
+          + " symbols exceeds " + MAX_LENGTH + " words or " + MAX_ID + " symbols");
+    }
+    this.capacity = length;
+    this.length = length;
+    this.numSymbols = numSymbols;
+    this.logSpace = logSpace;
+    scores = logSpace ? null : new double[length][length + 1][];
+    logScores = logSpace ? new float[length][length + 1][] : null;
+    backpointers = new long[length][length + 1][];
+    symbols = new int[length][length + 1][];
+    symbolCounts = new int[length][length + 1];
+    members = new long[length][length + 1][];
+    for (int begin = 0; begin < length; begin++) {
+      for (int end = begin + 1; end <= length; end++) {
+        if (logSpace) {
+          logScores[begin][end] = new float[numSymbols];
+          Arrays.fill(logScores[begin][end], Float.NEGATIVE_INFINITY);
+        } else {
+          scores[begin][end] = new double[numSymbols];
+        }
+        backpointers[begin][end] = new long[numSymbols];
+        symbols[begin][end] = new int[8];
+        members[begin][end] = new long[(numSymbols + 63) >>> 6];
+      }
+    }
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the longest sentence this chart can hold.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Empties the chart for a new sentence and lifts any coarse restriction.
+   * Only the entries present in the previous sentence's spans are cleared,
+   * so this costs time proportional to what was filled, and allocates nothing.
+   * @param length number of words in the new sentence, at most getCapacity()
+   */
+  public void reset(int length) {
+    if (length > capacity) {
+      throw new IllegalArgumentException("Sentence length " + length + " exceeds chart capacity " + capacity);
+    }
+    for (int begin = 0; begin < this.length; begin++) {
+      for (int end = begin + 1; end <= this.length; end++) {
+        int[] list = symbols[begin][end];
+        for (int i = 0; i < symbolCounts[begin][end]; i++) {
+          if (logSpace) {
+            logScores[begin][end][list[i]] = Float.NEGATIVE_INFINITY;
+          } else {
+            scores[begin][end][list[i]] = 0;
+          }
+        }
+        symbolCounts[begin][end] = 0;
+        Arrays.fill(members[begin][end], 0L);
+      }
+    }
+    this.length = length;
+    allowed = null;
+    projection = null;
+  }
+
+  public int getNumSymbols() {
+    return numSymbols;
+  }
+
+  public boolean isLogSpace() {
+    return logSpace;
+  }
+
+  /**
+   * Returns whether a symbol is present in a span, in either mode.
+   */
+  public boolean contains(int begin, int end, int symbol) {
+    return logSpace
+      ? logScores[begin][end][symbol] != Float.NEGATIVE_INFINITY
+      : scores[begin][end][symbol] != 0;
+  }
+
+  /**
+   * Returns the probability of a symbol over a span.  In log-space mode this
+   * is exponentiated, and so may underflow to zero on long sentences.
+   */
+  public double getScore(int begin, int end, int symbol) {
+    return logSpace ? Math.exp(logScores[begin][end][symbol]) : scores[begin][end][symbol];
+  }
+
+  /**
+   * Returns the log probability of a symbol over a span, in either mode.
+   */
+  public double getLogScore(int begin, int end, int symbol) {
+    return logSpace ? logScores[begin][end][symbol] : Math.log(scores[begin][end][symbol]);
+  }
+
+  /**
+   * Returns the score array for a span, indexed by symbol id.  Callers must
+   * not write to it; use relax() instead.  Probability-space mode only.
+   */
+  public double[] getScores(int begin, int end) {
+    return scores[begin][end];
+  }
+
+  /**
+   * Returns the log score array for a span, indexed by symbol id.  Callers
+   * must not write to it; use relax() instead.  Log-space mode only.
+   */
+  public float[] getLogScores(int begin, int end) {
+    return logScores[begin][end];
+  }
+
+  public int getSplit(int begin, int end, int symbol) {
+    return (int) (backpointers[begin][end][symbol] >>> (2 * ID_BITS)) - 1;
+  }
+
+  public int getLeftChild(int begin, int end, int symbol) {
+    return (int) ((backpointers[begin][end][symbol] >>> ID_BITS) & ID_MASK) - 1;
+  }
+
+  public int getRightChild(int begin, int end, int symbol) {
+    return (int) (backpointers[begin][end][symbol] & ID_MASK) - 1;
+  }
+
+  /**
+   * Returns the symbols present in a span.  Only the first
+   * getSymbolCount(begin, end) entries are valid.
+   */
+  public int[] getSymbols(int begin, int end) {
+    return symbols[begin][end];
+  }
+
+  public int getSymbolCount(int begin, int end) {
+    return symbolCounts[begin][end];
+  }
+
+  /**
+   * Returns the symbols present in a span as a bitset: symbol s is present
+   * if bit (s & 63) of word (s >>> 6) is set.  Callers must not write to it.
+   */
+  public long[] getMembers(int begin, int end) {
+    return members[begin][end];
+  }
+
+  /**
+   * Returns the number of (span, symbol) entries in the chart.
+   */
+  public long getEntryCount() {
+    long count = 0;
+    for (int begin = 0; begin < length; begin++) {
+      for (int end = begin + 1; end <= length; end++) {
+        count += symbolCounts[begin][end];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Restricts which symbols may enter each span, as decided by a coarse pass.
+   * A symbol s may enter [begin, end) only if allowed[begin][end][projection[s]]
+   * holds; symbols with a negative projection are always allowed.
+   * @param allowed allowed[begin][end][coarseSymbol], or null to lift the restriction
+   * @param projection maps this chart's symbol ids to coarse symbol ids
+   */
+  public void restrict(boolean[][][] allowed, int[] projection) {
+    this.allowed = allowed;
+    this.projection = projection;
+  }
+
+  /**
+   * Stores the entry if it beats the current score for the symbol in this span.
+   * @param score probability, or log probability in log-space mode
+   * @param right right child symbol or closure rule, below MAX_ID
+   * @return whether the entry was stored
+   */
+  public boolean relax(int begin, int end, int symbol, double score, int split, int left, int right) {
+    if (logSpace) {
+      float[] cellScores = logScores[begin][end];
+      float old = cellScores[symbol];
+      float logScore = (float) score;
+      if (logScore <= old || !isAllowed(begin, end, symbol)) return false;
+      if (old == Float.NEGATIVE_INFINITY) addSymbol(begin, end, symbol);
+      cellScores[symbol] = logScore;
+    } else {
+      double[] cellScores = scores[begin][end];
+      double old = cellScores[symbol];
+      if (score <= old || !isAllowed(begin, end, symbol)) return false;
+      if (old == 0) addSymbol(begin, end, symbol);
+      cellScores[symbol] = score;
+    }
+    if (right >= MAX_ID) {
+      throw new IllegalArgumentException("Backpointer id " + right + " is not below " + MAX_ID);
+    }
+    backpointers[begin][end][symbol] = (long) (split + 1) << (2 * ID_BITS)
+      | (long) (left + 1) << ID_BITS | (right + 1);
+    return true;
+  }
+
+  private boolean isAllowed(int begin, int end, int symbol) {
+    if (allowed == null) return true;
+    int coarse = projection[symbol];
+    return coarse < 0 || allowed[begin][end][coarse];
+  }
+
+  /**
+   * Beam-prunes a finished span.  A symbol survives if its score is within
+   * threshold (a log-probability margin) of the best score in the span and,
+   * when beamSize is positive, it is among the beamSize best.  Pruned
+   * symbols are dropped from the span and their scores zeroed; backpointers
+   * are kept so surviving unary entries can still be rebuilt through them.
+   * The beamSize-th best score is found by quickselect in a per-thread
+   * scratch array, so pruning allocates nothing once the scratch has grown.
+   * @param threshold log-probability margin, or positive infinity for no threshold
+   * @param beamSize maximum number of symbols to keep, or zero or less for no limit
+   * @return number of symbols pruned
+   */
+  public int prune(int begin, int end, int beamSize, double threshold) {
+    int[] list = symbols[begin][end];
+    int count = symbolCounts[begin][end];
+    if (count == 0) return 0;
+
+    // compare in whichever space the chart holds; both orders agree
+    double best = logSpace ? Double.NEGATIVE_INFINITY : 0;
+    for (int i = 0; i < count; i++) {
+      best = Math.max(best, scoreOf(begin, end, list[i]));
+    }
+    double cutoff = logSpace ? best - threshold : best * Math.exp(-threshold);
+    int tieSlots = count;
+    if (beamSize > 0 && count > beamSize) {
+      double[] candidates = getScratch(count);
+      int n = 0;
+      for (int i = 0; i < count; i++) {
+        double score = scoreOf(begin, end, list[i]);
+        if (score >= cutoff) candidates[n++] = score;
+      }
+      if (n > beamSize) {
+        int k = n - beamSize;
+        double kth = select(candidates, n, k);
+        // symbols tied with the k-th best only fill the slots left in the beam
+        cutoff = kth;
+        tieSlots = beamSize;
+        for (int i = k + 1; i < n; i++) {
+          if (candidates[i] > kth) tieSlots--;
+        }
+      }
+    }
+
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      int symbol = list[i];
+      double score = scoreOf(begin, end, symbol);
+      if (score > cutoff || (score == cutoff && tieSlots-- > 0)) {
+        list[kept++] = symbol;
+      } else {
+        members[begin][end][symbol >>> 6] &= ~(1L << symbol);
+        if (logSpace) {
+          logScores[begin][end][symbol] = Float.NEGATIVE_INFINITY;
+        } else {
+          scores[begin][end][symbol] = 0;
+        }
+      }
+    }
+    symbolCounts[begin][end] = kept;
+    return count - kept;
+  }
+
+  private double scoreOf(int begin, int end, int symbol) {
+    return logSpace ? logScores[begin][end][symbol] : scores[begin][end][symbol];
+  }
+
+  /* The calling thread's scratch array, grown like the symbol lists to hold
+   * at least size scores.  Per thread, since spans are pruned in parallel. */
+  private double[] getScratch(int size) {
+    double[] work = scratch.get();
+    if (work == null || work.length < size) {
+      int length = work == null ? 8 : work.length;
+      while (length < size) length *= 2;
+      work = new double[Math.min(length, numSymbols)];
+      scratch.set(work);
+    }
+    return work;
+  }
+
+  /* Rearranges a[0, n) so that a[k] holds the value it would in sorted
+   * order, with no larger value before it and no smaller one after it,
+   * and returns a[k]. */
+  private static double select(double[] a, int n, int k) {
+    int lo = 0, hi = n - 1;
+    while (lo < hi) {
+      double pivot = a[(lo + hi) >>> 1];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (a[i] < pivot) i++;
+        while (a[j] > pivot) j--;
+        if (i <= j) {
+          double t = a[i];
+          a[i++] = a[j];
+          a[j--] = t;
+        }
+      }
+      if (k <= j) {
+        hi = j;
+      } else if (k >= i) {
+        lo = i;
+      } else {
+        break;
+      }
+    }
+    return a[k];
+  }
+
+  private void addSymbol(int begin, int end, int symbol) {
+    int[] list = symbols[begin][end];
+    int count = symbolCounts[begin][end];
+    if (count == list.length) {
+      int[] grown = new int[Math.min(2 * list.length, numSymbols)];
+      System.arraycopy(list, 0, grown, 0, count);
+      list = grown;
+      symbols[begin][end] = list;
+    }
+    list[count] = symbol;
+    symbolCounts[begin][end] = count + 1;
+    members[begin][end][symbol >>> 6] |= 1L << symbol;
+  }
+}
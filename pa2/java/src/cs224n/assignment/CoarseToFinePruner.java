@@ -0,0 +1,295 @@
+package cs224n.assignment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import cs224n.util.Index;
+
+/**
+ * Coarse pass of coarse-to-fine parsing.  A small grammar is trained on the
+ * coarse projection of the annotated training trees (see
+ * TreeAnnotations.projectLabel), and each sentence is first run through it
+ * with inside-outside.  Fine symbols whose coarse projection has a low
+ * posterior in a span are then left out of the fine chart.
+ *
+ * Each chart cell has two layers: the binary layer (preterminals and binary
+ * rules) and the unary layer above it, which adds one closure rule.  Sums
+ * over unary chains use the closure's best-chain score for each (child,
+ * ancestor) pair, which slightly underestimates the true inside and outside
+ * scores but never loops.
+ *
+ * Scores are kept as doubles with a power-of-two scale per span, so that
+ * long sentences do not underflow: a span's largest inside score is kept in
+ * [1, 2) and the span's scale records the exponent taken out.
+ */
+public class CoarseToFinePruner {
+
+  /* Scale of a span with no inside score. */
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  private final TagDictionary tagDictionary;
+  private final Index<String> symbols;
+  private final CompiledGrammar grammar;
+  private final int[] fineToCoarse;
+  private final double threshold;
+  private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>();
+
+  /**
+   * Train the coarse grammar and map every fine symbol to its projection.
+   * @param coarseGrammarTally rules of the projected training trees
+   * @param coarseLexiconTally taggings of the projected training trees
+   * @param fineSymbols symbol index of the fine grammar
+   * @param threshold minimum posterior for a coarse symbol to stay in a span
+   */
+  CoarseToFinePruner(Grammar.Tally coarseGrammarTally, Lexicon.Tally coarseLexiconTally,
+      Index<String> fineSymbols, double threshold) {
+    Lexicon lexicon = new Lexicon(coarseLexiconTally);
+    Grammar coarseGrammar = new Grammar(coarseGrammarTally);
+    symbols = PCFGParser.buildSymbolIndex(coarseGrammar, lexicon);
+    grammar = new CompiledGrammar(coarseGrammar, symbols);
+    tagDictionary = new TagDictionary(lexicon, symbols);
+    this.threshold = threshold;
+
+    fineToCoarse = new int[fineSymbols.size()];
+    for (int s = 0; s < fineSymbols.size(); s++) {
+      fineToCoarse[s] = symbols.indexOf(TreeAnnotations.projectLabel(fineSymbols.get(s)));
+    }
+  }
+
+  /**
+   * Maps fine symbol ids to coarse symbol ids (-1 if a fine symbol has no projection).
+   */
+  public int[] getProjection() {
+    return fineToCoarse;
+  }
+
+  public int getNumCoarseSymbols() {
+    return symbols.size();
+  }
+
+  /**
+   * Runs the coarse pass on a sentence.  The returned array is reused by
+   * the calling thread's next call.
+   * @param sentence the sentence to parse
+   * @return allowed[begin][end][coarseSymbol], or null if the coarse grammar
+   *         finds no parse and nothing should be pruned
+   */
+  public boolean[][][] getAllowedSymbols(List<String> sentence) {
+    int len = sentence.size();
+    int numSymbols = symbols.size();
+    if (len == 0) return null;
+
+    Workspace work = getWorkspace(len);
+    double[][][] insideB = work.insideB;
+    double[][][] insideU = work.insideU;
+    double[][][] outsideB = work.outsideB;
+    double[][][] outsideU = work.outsideU;
+    int[][] scale = work.scale;
+
+    int[] pairRight = grammar.getPairRightChildren();
+    int[] pairOffsets = grammar.getPairOffsets();
+    int[] leftOffsets = grammar.getLeftOffsets();
+    int[] parents = grammar.getBinaryParents();
+    double[] ruleScores = grammar.getBinaryScores();
+    int[] closureOffsets = grammar.getClosureOffsets();
+    int[] closureParents = grammar.getClosureParents();
+    double[] closureScores = grammar.getClosureScores();
+
+    // inside pass
+    for (int i = 0; i < len; i++) {
+      TagDictionary.Taggings taggings = tagDictionary.getTaggings(sentence.get(i));
+      int[] tags = taggings.getTags();
+      double[] scores = taggings.getScores();
+      for (int t = 0; t < tags.length; t++) {
+        insideB[i][i + 1][tags[t]] = scores[t];
+      }
+      scale[i][i + 1] = closeInside(insideB[i][i + 1], insideU[i][i + 1], 0);
+    }
+    for (int span = 2; span <= len; span++) {
+      for (int begin = 0; begin <= len - span; begin++) {
+        int end = begin + span;
+        // the parent takes the largest scale of its splits, and the others
+        // are brought down to it
+        int parentScale = EMPTY;
+        for (int split = begin + 1; split < end; split++) {
+          if (scale[begin][split] != EMPTY && scale[split][end] != EMPTY)
+            parentScale = Math.max(parentScale, scale[begin][split] + scale[split][end]);
+        }
+        if (parentScale == EMPTY) {
+          scale[begin][end] = EMPTY;
+          continue;
+        }
+        double[] parentScores = insideB[begin][end];
+        for (int split = begin + 1; split < end; split++) {
+          if (scale[begin][split] == EMPTY || scale[split][end] == EMPTY) continue;
+          double factor = Math.scalb(1.0, scale[begin][split] + scale[split][end] - parentScale);
+          double[] leftScores = insideU[begin][split];
+          double[] rightScores = insideU[split][end];
+          for (int B = 0; B < numSymbols; B++) {
+            double bScore = leftScores[B];
+            if (bScore == 0) continue;
+            bScore *= factor;
+            for (int pair = leftOffsets[B]; pair < leftOffsets[B + 1]; pair++) {
+              double cScore = rightScores[pairRight[pair]];
+              if (cScore == 0) continue;
+              double childScore = bScore * cScore;
+              for (int r = pairOffsets[pair]; r < pairOffsets[pair + 1]; r++) {
+                parentScores[parents[r]] += childScore * ruleScores[r];
+              }
+            }
+          }
+        }
+        scale[begin][end] = closeInside(insideB[begin][end], insideU[begin][end], parentScale);
+      }
+    }
+
+    int root = symbols.indexOf("ROOT");
+    if (root < 0 || scale[0][len] == EMPTY) return null;
+    double total = insideU[0][len][root];
+    if (total == 0 || Double.isInfinite(total) || Double.isNaN(total)) return null;
+
+    // outside pass, from the whole sentence down to single words.  A span's
+    // outside scores are scaled by 2^(scale[0][len] - scale[begin][end]), so
+    // inside times outside is scaled like the total
+    outsideU[0][len][root] = 1.0;
+    for (int span = len; span >= 1; span--) {
+      for (int begin = 0; begin <= len - span; begin++) {
+        int end = begin + span;
+        if (scale[begin][end] == EMPTY) continue;
+        double[] outB = outsideB[begin][end];
+        double[] outU = outsideU[begin][end];
+        for (int Y = 0; Y < numSymbols; Y++) {
+          double score = outU[Y];
+          for (int u = closureOffsets[Y]; u < closureOffsets[Y + 1]; u++) {
+            score += closureScores[u] * outU[closureParents[u]];
+          }
+          outB[Y] = score;
+        }
+        if (span == 1) continue;
+        for (int split = begin + 1; split < end; split++) {
+          if (scale[begin][split] == EMPTY || scale[split][end] == EMPTY) continue;
+          double factor = Math.scalb(1.0, scale[begin][split] + scale[split][end] - scale[begin][end]);
+          double[] leftInside = insideU[begin][split];
+          double[] rightInside = insideU[split][end];
+          double[] leftOutside = outsideU[begin][split];
+          double[] rightOutside = outsideU[split][end];
+          for (int B = 0; B < numSymbols; B++) {
+            double bScore = leftInside[B];
+            if (bScore == 0) continue;
+            bScore *= factor;
+            for (int pair = leftOffsets[B]; pair < leftOffsets[B + 1]; pair++) {
+              int C = pairRight[pair];
+              double cScore = rightInside[C];
+              if (cScore == 0) continue;
+              cScore *= factor;
+              for (int r = pairOffsets[pair]; r < pairOffsets[pair + 1]; r++) {
+                double parentOutside = outB[parents[r]] * ruleScores[r];
+                if (parentOutside == 0) continue;
+                leftOutside[B] += parentOutside * cScore;
+                rightOutside[C] += parentOutside * bScore;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    // keep a coarse symbol if either layer's posterior clears the threshold
+    boolean[][][] allowed = work.allowed;
+    double cutoff = threshold * total;
+    for (int begin = 0; begin < len; begin++) {
+      for (int end = begin + 1; end <= len; end++) {
+        boolean[] cell = allowed[begin][end];
+        for (int X = 0; X < numSymbols; X++) {
+          cell[X] = insideB[begin][end][X] * outsideB[begin][end][X] >= cutoff
+            || insideU[begin][end][X] * outsideU[begin][end][X] >= cutoff;
+        }
+      }
+    }
+    return allowed;
+  }
+
+  /* Unary layer of a cell: its binary-layer scores plus one closure rule
+   * over them.  Both layers are then rescaled by a power of two so that
+   * their largest score is in [1, 2), and the cell's new scale returned. */
+  private int closeInside(double[] binaryLayer, double[] unaryLayer, int scale) {
+    int[] closureOffsets = grammar.getClosureOffsets();
+    int[] closureParents = grammar.getClosureParents();
+    double[] closureScores = grammar.getClosureScores();
+    System.arraycopy(binaryLayer, 0, unaryLayer, 0, binaryLayer.length);
+    for (int Y = 0; Y < binaryLayer.length; Y++) {
+      double score = binaryLayer[Y];
+      if (score == 0) continue;
+      for (int u = closureOffsets[Y]; u < closureOffsets[Y + 1]; u++) {
+        unaryLayer[closureParents[u]] += closureScores[u] * score;
+      }
+    }
+    double max = 0;
+    for (double score : unaryLayer) {
+      max = Math.max(max, score);
+    }
+    if (max == 0) return EMPTY;
+    int exponent = Math.getExponent(max);
+    if (exponent == 0) return scale;
+    double factor = Math.scalb(1.0, -exponent);
+    for (int X = 0; X < unaryLayer.length; X++) {
+      binaryLayer[X] *= factor;
+      unaryLayer[X] *= factor;
+    }
+    return scale + exponent;
+  }
+
+  /* The calling thread's workspace, emptied for a sentence of length len. */
+  private Workspace getWorkspace(int len) {
+    Workspace work = workspace.get();
+    if (work == null || work.capacity < len) {
+      work = new Workspace(len, symbols.size());
+      workspace.set(work);
+    } else {
+      work.clear(len);
+    }
+    return work;
+  }
+
+  /* Inside and outside scores and the allowed symbols of every span of a
+   * sentence of up to capacity words. */
+  private static class Workspace {
+    final int capacity;
+    final double[][][] insideB;
+    final double[][][] insideU;
+    final double[][][] outsideB;
+    final double[][][] outsideU;
+    final int[][] scale;
+    final boolean[][][] allowed;
+
+    Workspace(int capacity, int numSymbols) {
+      this.capacity = capacity;
+      insideB = new double[capacity][capacity + 1][];
+      insideU = new double[capacity][capacity + 1][];
+      outsideB = new double[capacity][capacity + 1][];
+      outsideU = new double[capacity][capacity + 1][];
+      scale = new int[capacity][capacity + 1];
+      allowed = new boolean[capacity][capacity + 1][];
+      for (int begin = 0; begin < capacity; begin++) {
+        for (int end = begin + 1; end <= capacity; end++) {
+          insideB[begin][end] = new double[numSymbols];
+          insideU[begin][end] = new double[numSymbols];
+          outsideB[begin][end] = new double[numSymbols];
+          outsideU[begin][end] = new double[numSymbols];
+          allowed[begin][end] = new boolean[numSymbols];
+        }
+      }
+    }
+
+    void clear(int len) {
+      for (int begin = 0; begin < len; begin++) {
+        for (int end = begin + 1; end <= len; end++) {
+          Arrays.fill(insideB[begin][end], 0.0);
+          Arrays.fill(insideU[begin][end], 0.0);
+          Arrays.fill(outsideB[begin][end], 0.0);
+          Arrays.fill(outsideU[begin][end], 0.0);
+        }
+      }
+    }
+  }
+}
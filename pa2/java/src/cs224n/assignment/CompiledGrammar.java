@@ -0,0 +1,370 @@
+package cs224n.assignment;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import cs224n.assignment.Grammar.BinaryRule;
+import cs224n.assignment.Grammar.ClosedUnaryRule;
+import cs224n.util.Index;
+
+/**
+ * Immutable, integer-compiled form of a Grammar.  Every symbol is replaced
+ * by its id in a symbol Index, and rules are stored in parallel primitive
+ * arrays so the CKY inner loop walks contiguous memory.
+ *
+ * Binary rules are sorted by (left child, right child).  Rules sharing the
+ * same pair of children form a contiguous "pair" block, and pairs are
+ * reachable CSR-style both by left child and by right child:
+ *
+ *   rules of pair p:        [pairOffsets[p], pairOffsets[p + 1])
+ *   pairs with left B:      p in [leftOffsets[B], leftOffsets[B + 1])
+ *   pairs with right C:     pairsByRight[k] for k in [rightOffsets[C], rightOffsets[C + 1])
+ *
+ * The symbols that head at least one pair as left child, and as right
+ * child, are also kept as bitsets over symbol ids (bit s & 63 of word s >>> 6).
+ *
+ * Only the grammar's unary closure is compiled, since the parser never
+ * applies raw unary rules.  Closure rules are sorted by child, with
+ * [closureOffsets[C], closureOffsets[C + 1]) holding the rules whose child
+ * is C, and closure rule u rebuilds its chain from the symbols
+ * [closurePathOffsets[u], closurePathOffsets[u + 1]) of closurePath, listed
+ * from just below the parent down to just above the child.
+ */
+public class CompiledGrammar {
+
+  private final Index<String> symbols;
+
+  private final int[] binaryParent;
+  private final int[] binaryLeft;
+  private final int[] binaryRight;
+  private final double[] binaryScore;
+  private final double[] binaryLogScore;
+
+  private final int[] pairLeft;
+  private final int[] pairRight;
+  private final int[] pairOffsets;
+  private final int[] leftOffsets;
+  private final int[] rightOffsets;
+  private final int[] pairsByRight;
+  private final long[] leftChildSet;
+  private final long[] rightChildSet;
+
+  private final int[] closureParent;
+  private final int[] closureChild;
+  private final double[] closureScore;
+  private final double[] closureLogScore;
+  private final int[] closureOffsets;
+  private final int[] closurePathOffsets;
+  private final int[] closurePath;
+
+  /**
+   * Compile a grammar against a symbol index.  Every symbol used by the
+   * grammar's rules must already be in the index.
+   * @param grammar grammar to compile
+   * @param symbols index mapping symbols to ids
+   */
+  public CompiledGrammar(Grammar grammar, Index<String> symbols) {
+    this.symbols = symbols;
+    int numSymbols = symbols.size();
+
+    // binary rules, grouped into (left, right) pairs
+    List<BinaryRule> binaryRules = new ArrayList<BinaryRule>(grammar.getBinaryRules());
+    Collections.sort(binaryRules, new BinaryRuleComparator(symbols));
+    int numBinary = binaryRules.size();
+    binaryParent = new int[numBinary];
+    binaryLeft = new int[numBinary];
+    binaryRight = new int[numBinary];
+    binaryScore = new double[numBinary];
+    int numPairs = 0;
+    for (int r = 0; r < numBinary; r++) {
+      BinaryRule bRule = binaryRules.get(r);
+      binaryParent[r] = indexOf(bRule.getParent());
+      binaryLeft[r] = indexOf(bRule.getLeftChild());
+      binaryRight[r] = indexOf(bRule.getRightChild());
+      binaryScore[r] = bRule.getScore();
+      if (r == 0 || binaryLeft[r] != binaryLeft[r - 1] || binaryRight[r] != binaryRight[r - 1]) {
+        numPairs++;
+      }
+    }
+    pairLeft = new int[numPairs];
+    pairRight = new int[numPairs];
+    pairOffsets = new int[numPairs + 1];
+    int p = -1;
+    for (int r = 0; r < numBinary; r++) {
+      if (r == 0 || binaryLeft[r] != binaryLeft[r - 1] || binaryRight[r] != binaryRight[r - 1]) {
+        p++;
+        pairLeft[p] = binaryLeft[r];
+        pairRight[p] = binaryRight[r];
+        pairOffsets[p] = r;
+      }
+    }
+    pairOffsets[numPairs] = numBinary;
+
+    leftOffsets = new int[numSymbols + 1];
+    rightOffsets = new int[numSymbols + 1];
+    for (p = 0; p < numPairs; p++) {
+      leftOffsets[pairLeft[p] + 1]++;
+      rightOffsets[pairRight[p] + 1]++;
+    }
+    for (int s = 0; s < numSymbols; s++) {
+      leftOffsets[s + 1] += leftOffsets[s];
+      rightOffsets[s + 1] += rightOffsets[s];
+    }
+    pairsByRight = new int[numPairs];
+    int[] fill = new int[numSymbols];
+    for (p = 0; p < numPairs; p++) {
+      int C = pairRight[p];
+      pairsByRight[rightOffsets[C] + fill[C]++] = p;
+    }
+
+    // unary closure, grouped by child, with the chains flattened into closurePath
+    List<ClosedUnaryRule> closedRules = grammar.getClosedUnaryRules();
+    int numClosed = closedRules.size();
+    closureParent = new int[numClosed];
+    closureChild = new int[numClosed];
+    closureScore = new double[numClosed];
+    closureOffsets = new int[numSymbols + 1];
+    closurePathOffsets = new int[numClosed + 1];
+    int pathLength = 0;
+    for (ClosedUnaryRule closedRule : closedRules) {
+      closureOffsets[indexOf(closedRule.getChild()) + 1]++;
+      pathLength += closedRule.getPath().size();
+    }
+    for (int s = 0; s < numSymbols; s++) {
+      closureOffsets[s + 1] += closureOffsets[s];
+    }
+    ClosedUnaryRule[] byChild = new ClosedUnaryRule[numClosed];
+    fill = new int[numSymbols];
+    for (ClosedUnaryRule closedRule : closedRules) {
+      int child = indexOf(closedRule.getChild());
+      byChild[closureOffsets[child] + fill[child]++] = closedRule;
+    }
+    closurePath = new int[pathLength];
+    for (int u = 0; u < numClosed; u++) {
+      closureParent[u] = indexOf(byChild[u].getParent());
+      closureChild[u] = indexOf(byChild[u].getChild());
+      closureScore[u] = byChild[u].getScore();
+      int offset = closurePathOffsets[u];
+      for (String symbol : byChild[u].getPath()) {
+        closurePath[offset++] = indexOf(symbol);
+      }
+      closurePathOffsets[u + 1] = offset;
+    }
+    binaryLogScore = log(binaryScore);
+    closureLogScore = log(closureScore);
+    leftChildSet = childSet(leftOffsets);
+    rightChildSet = childSet(rightOffsets);
+  }
+
+  /**
+   * Read a grammar written by write(), as part of a ModelFile.
+   * @param symbols symbol index the grammar was compiled against
+   * @param in buffer positioned at the start of the grammar
+   * @throws IOException if an array has the wrong length or holds an id or
+   *         offset out of range for the symbol index
+   */
+  CompiledGrammar(Index<String> symbols, ByteBuffer in) throws IOException {
+    this.symbols = symbols;
+    int numSymbols = symbols.size();
+    binaryParent = ModelFile.readIds(in, -1, numSymbols);
+    int numBinary = binaryParent.length;
+    binaryLeft = ModelFile.readIds(in, numBinary, numSymbols);
+    binaryRight = ModelFile.readIds(in, numBinary, numSymbols);
+    binaryScore = ModelFile.readDoubles(in, numBinary);
+    pairLeft = ModelFile.readIds(in, -1, numSymbols);
+    int numPairs = pairLeft.length;
+    pairRight = ModelFile.readIds(in, numPairs, numSymbols);
+    pairOffsets = ModelFile.readOffsets(in, numPairs + 1, numBinary);
+    leftOffsets = ModelFile.readOffsets(in, numSymbols + 1, numPairs);
+    rightOffsets = ModelFile.readOffsets(in, numSymbols + 1, numPairs);
+    pairsByRight = ModelFile.readIds(in, numPairs, numPairs);
+    closureParent = ModelFile.readIds(in, -1, numSymbols);
+    int numClosed = closureParent.length;
+    closureChild = ModelFile.readIds(in, numClosed, numSymbols);
+    closureScore = ModelFile.readDoubles(in, numClosed);
+    closureOffsets = ModelFile.readOffsets(in, numSymbols + 1, numClosed);
+    closurePathOffsets = ModelFile.readOffsets(in, numClosed + 1, -1);
+    closurePath = ModelFile.readIds(in, closurePathOffsets[numClosed], numSymbols);
+    binaryLogScore = log(binaryScore);
+    closureLogScore = log(closureScore);
+    leftChildSet = childSet(leftOffsets);
+    rightChildSet = childSet(rightOffsets);
+  }
+
+  /**
+   * Write the rule arrays (but not the symbol index) for a ModelFile.
+   */
+  void write(DataOutputStream out) throws IOException {
+    ModelFile.writeInts(out, binaryParent);
+    ModelFile.writeInts(out, binaryLeft);
+    ModelFile.writeInts(out, binaryRight);
+    ModelFile.writeDoubles(out, binaryScore);
+    ModelFile.writeInts(out, pairLeft);
+    ModelFile.writeInts(out, pairRight);
+    ModelFile.writeInts(out, pairOffsets);
+    ModelFile.writeInts(out, leftOffsets);
+    ModelFile.writeInts(out, rightOffsets);
+    ModelFile.writeInts(out, pairsByRight);
+    ModelFile.writeInts(out, closureParent);
+    ModelFile.writeInts(out, closureChild);
+    ModelFile.writeDoubles(out, closureScore);
+    ModelFile.writeInts(out, closureOffsets);
+    ModelFile.writeInts(out, closurePathOffsets);
+    ModelFile.writeInts(out, closurePath);
+  }
+
+  private static double[] log(double[] scores) {
+    double[] logScores = new double[scores.length];
+    for (int i = 0; i < scores.length; i++) {
+      logScores[i] = Math.log(scores[i]);
+    }
+    return logScores;
+  }
+
+  /* Bitset of the symbols s with a nonempty range [offsets[s], offsets[s + 1]). */
+  private static long[] childSet(int[] offsets) {
+    int numSymbols = offsets.length - 1;
+    long[] set = new long[(numSymbols + 63) >>> 6];
+    for (int s = 0; s < numSymbols; s++) {
+      if (offsets[s + 1] > offsets[s]) set[s >>> 6] |= 1L << s;
+    }
+    return set;
+  }
+
+  private int indexOf(String symbol) {
+    int id = symbols.indexOf(symbol);
+    if (id < 0) {
+      throw new IllegalArgumentException("Symbol missing from index: " + symbol);
+    }
+    return id;
+  }
+
+  public Index<String> getSymbols() {
+    return symbols;
+  }
+
+  public int getNumSymbols() {
+    return symbols.size();
+  }
+
+  public int getNumBinaryRules() {
+    return binaryParent.length;
+  }
+
+  /* Parallel binary rule arrays, sorted by (left child, right child). */
+  public int[] getBinaryParents() {
+    return binaryParent;
+  }
+
+  public int[] getBinaryLeftChildren() {
+    return binaryLeft;
+  }
+
+  public int[] getBinaryRightChildren() {
+    return binaryRight;
+  }
+
+  public double[] getBinaryScores() {
+    return binaryScore;
+  }
+
+  public double[] getBinaryLogScores() {
+    return binaryLogScore;
+  }
+
+  /* Child pairs and their rule ranges. */
+  public int[] getPairLeftChildren() {
+    return pairLeft;
+  }
+
+  public int[] getPairRightChildren() {
+    return pairRight;
+  }
+
+  public int[] getPairOffsets() {
+    return pairOffsets;
+  }
+
+  /* Pair ranges by left child, and pair ids by right child. */
+  public int[] getLeftOffsets() {
+    return leftOffsets;
+  }
+
+  public int[] getRightOffsets() {
+    return rightOffsets;
+  }
+
+  public int[] getPairsByRight() {
+    return pairsByRight;
+  }
+
+  /* Bitsets of the symbols that appear as a left, or right, child of some binary rule. */
+  public long[] getLeftChildSet() {
+    return leftChildSet;
+  }
+
+  public long[] getRightChildSet() {
+    return rightChildSet;
+  }
+
+  public int getNumClosureRules() {
+    return closureParent.length;
+  }
+
+  /* Parallel unary closure arrays, sorted by child, and the flattened chains. */
+  public int[] getClosureParents() {
+    return closureParent;
+  }
+
+  public int[] getClosureChildren() {
+    return closureChild;
+  }
+
+  public double[] getClosureScores() {
+    return closureScore;
+  }
+
+  public double[] getClosureLogScores() {
+    return closureLogScore;
+  }
+
+  public int[] getClosureOffsets() {
+    return closureOffsets;
+  }
+
+  public int[] getClosurePathOffsets() {
+    return closurePathOffsets;
+  }
+
+  public int[] getClosurePath() {
+    return closurePath;
+  }
+
+  /* Orders binary rules by left child id, then right child id, then parent id. */
+  private static class BinaryRuleComparator implements Comparator<BinaryRule> {
+    private final Index<String> symbols;
+
+    public int compare(BinaryRule r1, BinaryRule r2) {
+      int cmp = compareIds(r1.getLeftChild(), r2.getLeftChild());
+      if (cmp != 0) return cmp;
+      cmp = compareIds(r1.getRightChild(), r2.getRightChild());
+      if (cmp != 0) return cmp;
+      return compareIds(r1.getParent(), r2.getParent());
+    }
+
+    private int compareIds(String s1, String s2) {
+      int i1 = symbols.indexOf(s1);
+      int i2 = symbols.indexOf(s2);
+      return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+
+    BinaryRuleComparator(Index<String> symbols) {
+      this.symbols = symbols;
+    }
+  }
+}
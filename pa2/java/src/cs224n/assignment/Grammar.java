@@ -8,6 +8,7 @@ import java.util.Map;
 import cs224n.ling.Tree;
 import cs224n.util.CollectionUtils;
 import cs224n.util.Counter;
+import cs224n.util.OpenAddressingCounter;
 
 // Grammar ====================================================================
 
@@ -137,13 +138,93 @@ public class Grammar {
 			this.child = child;
 		}
 	}	
+
+
+	// ClosedUnaryRule ============================================================
+
+	/** A chain of unary rules collapsed into one rule, with score equal to
+	 * the best product of rule probabilities along any chain from parent
+	 * down to child. */
+	public static class ClosedUnaryRule extends UnaryRule {
+
+		List<String> path;
+
+		/* The intermediate symbols of the best chain, from just below the
+		 * parent down to just above the child.  Empty for a single rule. */
+		public List<String> getPath() {
+			return path;
+		}
+
+		public String toString() {
+			return parent + " -> " + path + " -> " + child + " %% "+score;
+		}
+
+		public ClosedUnaryRule(String parent, String child, List<String> path, double score) {
+			super(parent, child);
+			this.path = path;
+			this.score = score;
+		}
+	}
 	
+	// Tally ======================================================================
+
+	/* Counts of the unary and binary productions in some training trees,
+	 * and of their parent symbols.  Tallies of disjoint shards of the trees
+	 * can be counted in parallel and merged; the merged counts equal those
+	 * of a single tally over all the trees. */
+	static class Tally {
+
+		final Counter<String> symbolCounter = new OpenAddressingCounter<String>();
+		final Counter<UnaryRule> unaryRuleCounter = new OpenAddressingCounter<UnaryRule>();
+		final Counter<BinaryRule> binaryRuleCounter = new OpenAddressingCounter<BinaryRule>();
+
+		Tally() {
+		}
+
+		Tally(List<Tree<String>> trainTrees) {
+			for (Tree<String> trainTree : trainTrees) {
+				add(trainTree);
+			}
+		}
+
+		void add(Tree<String> tree) {
+			if (tree.isLeaf()) return;
+			if (tree.isPreTerminal()) return;
+			if (tree.getChildren().size() == 1) {
+				UnaryRule unaryRule = makeUnaryRule(tree);
+				symbolCounter.incrementCount(tree.getLabel(), 1.0);
+				unaryRuleCounter.incrementCount(unaryRule, 1.0);
+			}
+			if (tree.getChildren().size() == 2) {
+				BinaryRule binaryRule = makeBinaryRule(tree);
+				symbolCounter.incrementCount(tree.getLabel(), 1.0);
+				binaryRuleCounter.incrementCount(binaryRule, 1.0);
+			}
+			if (tree.getChildren().size() < 1 || tree.getChildren().size() > 2) {
+				throw new RuntimeException("Attempted to construct a Grammar with an illegal tree: "+tree);
+			}
+			for (Tree<String> child : tree.getChildren()) {
+				add(child);
+			}
+		}
+
+		/* Adds the counts of another tally. */
+		void merge(Tally other) {
+			symbolCounter.incrementAll(other.symbolCounter);
+			unaryRuleCounter.incrementAll(other.unaryRuleCounter);
+			binaryRuleCounter.incrementAll(other.binaryRuleCounter);
+		}
+	}
+
 	Map<String, List<BinaryRule>> binaryRulesByLeftChild = 
 			new HashMap<String, List<BinaryRule>>();
 	Map<String, List<BinaryRule>> binaryRulesByRightChild = 
 			new HashMap<String, List<BinaryRule>>();
 	Map<String, List<UnaryRule>> unaryRulesByChild = 
 			new HashMap<String, List<UnaryRule>>();
+	List<BinaryRule> binaryRules = new ArrayList<BinaryRule>();
+	List<UnaryRule> unaryRules = new ArrayList<UnaryRule>();
+	List<ClosedUnaryRule> closedUnaryRules = new ArrayList<ClosedUnaryRule>();
 
 	/* Rules in grammar are indexed by child for easy access when
 	 * doing bottom up parsing. */
@@ -159,6 +240,20 @@ public class Grammar {
 		return CollectionUtils.getValueList(unaryRulesByChild, child);
 	}
 
+	/* The unary closure replaces repeated unary passes: applying each
+	 * closed rule once per chart cell gives the best unary chain. */
+	public List<ClosedUnaryRule> getClosedUnaryRules() {
+		return closedUnaryRules;
+	}
+
+	public List<BinaryRule> getBinaryRules() {
+		return binaryRules;
+	}
+
+	public List<UnaryRule> getUnaryRules() {
+		return unaryRules;
+	}
+
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		List<String> ruleStrings = new ArrayList<String>();
@@ -180,6 +275,7 @@ public class Grammar {
 	}
 
 	private void addBinary(BinaryRule binaryRule) {
+		binaryRules.add(binaryRule);
 		CollectionUtils.addToValueList(binaryRulesByLeftChild, 
 				binaryRule.getLeftChild(), binaryRule);
 		CollectionUtils.addToValueList(binaryRulesByRightChild, 
@@ -187,6 +283,7 @@ public class Grammar {
 	}
 
 	private void addUnary(UnaryRule unaryRule) {
+		unaryRules.add(unaryRule);
 		CollectionUtils.addToValueList(unaryRulesByChild, 
 				unaryRule.getChild(), unaryRule);
 	}
@@ -195,56 +292,68 @@ public class Grammar {
 	 * productions in the training trees to estimate the probabilities
 	 * for those rules.  */ 
 	public Grammar(List<Tree<String>> trainTrees) {
-		Counter<UnaryRule> unaryRuleCounter = new Counter<UnaryRule>();
-		Counter<BinaryRule> binaryRuleCounter = new Counter<BinaryRule>();
-		Counter<String> symbolCounter = new Counter<String>();
-		for (Tree<String> trainTree : trainTrees) {
-			tallyTree(trainTree, symbolCounter, unaryRuleCounter, binaryRuleCounter);
-		}
-		for (UnaryRule unaryRule : unaryRuleCounter.keySet()) {
+		this(new Tally(trainTrees));
+	}
+
+	/* Builds a PCFG from rule counts already tallied, possibly by several
+	 * shards of the training trees merged together. */
+	Grammar(Tally tally) {
+		for (UnaryRule unaryRule : tally.unaryRuleCounter.keySet()) {
 			double unaryProbability = 
-					unaryRuleCounter.getCount(unaryRule) / 
-					symbolCounter.getCount(unaryRule.getParent());
+					tally.unaryRuleCounter.getCount(unaryRule) / 
+					tally.symbolCounter.getCount(unaryRule.getParent());
 			unaryRule.setScore(unaryProbability);
 			addUnary(unaryRule);
 		}
-		for (BinaryRule binaryRule : binaryRuleCounter.keySet()) {
+		for (BinaryRule binaryRule : tally.binaryRuleCounter.keySet()) {
 			double binaryProbability = 
-					binaryRuleCounter.getCount(binaryRule) / 
-					symbolCounter.getCount(binaryRule.getParent());
+					tally.binaryRuleCounter.getCount(binaryRule) / 
+					tally.symbolCounter.getCount(binaryRule.getParent());
 			binaryRule.setScore(binaryProbability);
 			addBinary(binaryRule);
 		}
+		computeUnaryClosure();
 	}
 
-	private void tallyTree(Tree<String> tree, Counter<String> symbolCounter,
-			Counter<UnaryRule> unaryRuleCounter, 
-			Counter<BinaryRule> binaryRuleCounter) {
-		if (tree.isLeaf()) return;
-		if (tree.isPreTerminal()) return;
-		if (tree.getChildren().size() == 1) {
-			UnaryRule unaryRule = makeUnaryRule(tree);
-			symbolCounter.incrementCount(tree.getLabel(), 1.0);
-			unaryRuleCounter.incrementCount(unaryRule, 1.0);
-		}
-		if (tree.getChildren().size() == 2) {
-			BinaryRule binaryRule = makeBinaryRule(tree);
-			symbolCounter.incrementCount(tree.getLabel(), 1.0);
-			binaryRuleCounter.incrementCount(binaryRule, 1.0);
+	/* Finds, for every (child, ancestor) pair connected by unary rules, the
+	 * chain with the highest product of rule scores.  Chains are extended
+	 * one rule at a time until no pair improves; rule scores are at most
+	 * one, so cycles never improve a chain and the loop terminates. */
+	private void computeUnaryClosure() {
+		Map<UnaryRule, ClosedUnaryRule> best = new HashMap<UnaryRule, ClosedUnaryRule>();
+		for (UnaryRule unaryRule : unaryRules) {
+			if (unaryRule.getParent().equals(unaryRule.getChild())) continue;
+			best.put(unaryRule, new ClosedUnaryRule(unaryRule.getParent(), 
+					unaryRule.getChild(), new ArrayList<String>(), unaryRule.getScore()));
 		}
-		if (tree.getChildren().size() < 1 || tree.getChildren().size() > 2) {
-			throw new RuntimeException("Attempted to construct a Grammar with an illegal tree: "+tree);
-		}
-		for (Tree<String> child : tree.getChildren()) {
-			tallyTree(child, symbolCounter, unaryRuleCounter,  binaryRuleCounter);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (ClosedUnaryRule chain : new ArrayList<ClosedUnaryRule>(best.values())) {
+				for (UnaryRule unaryRule : getUnaryRulesByChild(chain.getParent())) {
+					String parent = unaryRule.getParent();
+					if (parent.equals(chain.getChild())) continue;
+					double score = chain.getScore() * unaryRule.getScore();
+					UnaryRule key = new UnaryRule(parent, chain.getChild());
+					ClosedUnaryRule current = best.get(key);
+					if (current == null || score > current.getScore()) {
+						List<String> path = new ArrayList<String>();
+						path.add(chain.getParent());
+						path.addAll(chain.getPath());
+						best.put(key, new ClosedUnaryRule(parent, chain.getChild(), path, score));
+						changed = true;
+					}
+				}
+			}
 		}
+		closedUnaryRules.addAll(best.values());
 	}
 
-	private UnaryRule makeUnaryRule(Tree<String> tree) {
+	private static UnaryRule makeUnaryRule(Tree<String> tree) {
 		return new UnaryRule(tree.getLabel(), tree.getChildren().get(0).getLabel());
 	}
 
-	private BinaryRule makeBinaryRule(Tree<String> tree) {
+	private static BinaryRule makeBinaryRule(Tree<String> tree) {
 		return new BinaryRule(tree.getLabel(), tree.getChildren().get(0).getLabel(), 
 				tree.getChildren().get(1).getLabel());
 	}
@@ -1,11 +1,20 @@
 package cs224n.assignment;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import cs224n.ling.Tree;
 import cs224n.util.Counter;
 import cs224n.util.CounterMap;
+import cs224n.util.OpenAddressingCounter;
 
 // Lexicon ====================================================================
 
@@ -15,12 +24,15 @@ import cs224n.util.CounterMap;
  */
 public class Lexicon {
 
-	CounterMap<String,String> wordToTagCounters = new CounterMap<String, String>();
+	/* Words seen fewer times than this are smoothed with the open-class tags. */
+	static final double RARE_WORD_COUNT = 10;
+
+	CounterMap<String,String> wordToTagCounters = CounterMap.withOpenAddressingCounters();
 	double totalTokens = 0.0;
 	double totalWordTypes = 0.0;
-	Counter<String> tagCounter = new Counter<String>();
-	Counter<String> wordCounter = new Counter<String>();
-	Counter<String> typeTagCounter = new Counter<String>();
+	Counter<String> tagCounter = new OpenAddressingCounter<String>();
+	Counter<String> wordCounter = new OpenAddressingCounter<String>();
+	Counter<String> typeTagCounter = new OpenAddressingCounter<String>();
 
 	public Set<String> getAllTags() {
 		return tagCounter.keySet();
@@ -30,12 +42,45 @@ public class Lexicon {
 		return wordCounter.keySet().contains(word);
 	}
 
+	/* Words seen in training. */
+	public Set<String> getKnownWords() {
+		return wordCounter.keySet();
+	}
+
+	/* Tags of word types seen for the first time in training, which are the
+	 * only tags a never-seen word can take. */
+	public Set<String> getOpenClassTags() {
+		return typeTagCounter.keySet();
+	}
+
+	/* Returns the tags that can score above zero for a word: only the tags it
+	 * was seen with if it is frequent, and those plus the open-class tags if it
+	 * is rare or unknown.  Every other tag's scoreTagging is exactly zero. */
+	public Set<String> getCandidateTags(String word) {
+		Set<String> seenTags = wordToTagCounters.keySet().contains(word)
+			? wordToTagCounters.getCounter(word).keySet()
+			: Collections.<String>emptySet();
+		if (wordCounter.getCount(word) >= RARE_WORD_COUNT)
+			return seenTags;
+		Set<String> tags = new HashSet<String>(getOpenClassTags());
+		tags.addAll(seenTags);
+		return tags;
+	}
+
 	/* Returns a smoothed estimate of P(word|tag) */
 	public double scoreTagging(String word, String tag) {
+		return scoreTagging(tag, wordCounter.getCount(word), wordToTagCounters.getCount(word, tag));
+	}
+
+	/* Returns the smoothed estimate of P(word|tag) shared by every word never
+	 * seen in training, the same as scoreTagging gives any unknown word. */
+	public double scoreUnknownTagging(String tag) {
+		return scoreTagging(tag, 0.0, 0.0);
+	}
+
+	private double scoreTagging(String tag, double c_word, double c_tag_and_word) {
 		double p_tag = tagCounter.getCount(tag) / totalTokens;
-		double c_word = wordCounter.getCount(word);
-		double c_tag_and_word = wordToTagCounters.getCount(word, tag);
-		if (c_word < 10) { // rare or unknown
+		if (c_word < RARE_WORD_COUNT) { // rare or unknown
 			c_word += 1.0;
 			c_tag_and_word += typeTagCounter.getCount(tag) / totalWordTypes;
 		}
@@ -46,7 +91,97 @@ public class Lexicon {
 
 	/* Builds a lexicon from the observed tags in a list of training trees. */
 	public Lexicon(List<Tree<String>> trainTrees) {
-		for (Tree<String> trainTree : trainTrees) {
+		this(new Tally(trainTrees));
+	}
+
+	/* Builds a lexicon from taggings already tallied, possibly by several
+	 * shards of the training trees merged together. */
+	Lexicon(Tally tally) {
+		wordToTagCounters = tally.wordToTagCounters;
+		totalTokens = tally.totalTokens;
+		tagCounter = tally.tagCounter;
+		wordCounter = tally.wordCounter;
+		for (String tag : tally.firstTags.values()) {
+			totalWordTypes += 1.0;
+			typeTagCounter.incrementCount(tag, 1.0);
+		}
+	}
+
+	/* Reads a lexicon written by write(), as part of a ModelFile. */
+	Lexicon(ByteBuffer in) throws IOException {
+		totalTokens = in.getDouble();
+		totalWordTypes = in.getDouble();
+		int numTags = ModelFile.readCount(in, 20);
+		String[] tags = new String[numTags];
+		for (int t = 0; t < numTags; t++) {
+			tags[t] = ModelFile.readString(in);
+			tagCounter.setCount(tags[t], in.getDouble());
+			double typeCount = in.getDouble();
+			if (typeCount != 0)
+				typeTagCounter.setCount(tags[t], typeCount);
+		}
+		int numWords = ModelFile.readCount(in, 16);
+		for (int w = 0; w < numWords; w++) {
+			String word = ModelFile.readString(in);
+			wordCounter.setCount(word, in.getDouble());
+			int numWordTags = ModelFile.readCount(in, 12);
+			for (int k = 0; k < numWordTags; k++) {
+				String tag = tags[ModelFile.readIndex(in, numTags)];
+				wordToTagCounters.setCount(word, tag, in.getDouble());
+			}
+		}
+	}
+
+	/* Writes the totals and counters for a ModelFile; word tags refer to tags by position. */
+	void write(DataOutputStream out) throws IOException {
+		out.writeDouble(totalTokens);
+		out.writeDouble(totalWordTypes);
+		out.writeInt(tagCounter.size());
+		Map<String, Integer> tagIds = new HashMap<String, Integer>();
+		for (String tag : tagCounter.keySet()) {
+			tagIds.put(tag, tagIds.size());
+			ModelFile.writeString(out, tag);
+			out.writeDouble(tagCounter.getCount(tag));
+			out.writeDouble(typeTagCounter.getCount(tag));
+		}
+		out.writeInt(wordCounter.size());
+		for (String word : wordCounter.keySet()) {
+			ModelFile.writeString(out, word);
+			out.writeDouble(wordCounter.getCount(word));
+			Counter<String> wordTags = wordToTagCounters.getCounter(word);
+			out.writeInt(wordTags.size());
+			for (String tag : wordTags.keySet()) {
+				out.writeInt(tagIds.get(tag));
+				out.writeDouble(wordTags.getCount(tag));
+			}
+		}
+	}
+
+	// Tally ======================================================================
+
+	/* Counts of the word, tag pairs in some training trees.  Besides the
+	 * counts, a tally keeps the tag each word type was first seen with, in
+	 * order, so the type counts of a merged tally come only from each word's
+	 * first occurrence across all shards, exactly as if the trees had been
+	 * tallied one after another. */
+	static class Tally {
+
+		final CounterMap<String,String> wordToTagCounters = CounterMap.withOpenAddressingCounters();
+		final Counter<String> tagCounter = new OpenAddressingCounter<String>();
+		final Counter<String> wordCounter = new OpenAddressingCounter<String>();
+		final Map<String, String> firstTags = new LinkedHashMap<String, String>();
+		double totalTokens = 0.0;
+
+		Tally() {
+		}
+
+		Tally(List<Tree<String>> trainTrees) {
+			for (Tree<String> trainTree : trainTrees) {
+				add(trainTree);
+			}
+		}
+
+		void add(Tree<String> trainTree) {
 			List<String> words = trainTree.getYield();
 			List<String> tags = trainTree.getPreTerminalYield();
 			for (int position = 0; position < words.size(); position++) {
@@ -55,16 +190,34 @@ public class Lexicon {
 				tallyTagging(word, tag);
 			}
 		}
-	}
 
-	private void tallyTagging(String word, String tag) {
-		if (! isKnown(word)) {
-			totalWordTypes += 1.0;
-			typeTagCounter.incrementCount(tag, 1.0);
+		private void tallyTagging(String word, String tag) {
+			if (! firstTags.containsKey(word)) {
+				firstTags.put(word, tag);
+			}
+			totalTokens += 1.0;
+			tagCounter.incrementCount(tag, 1.0);
+			wordCounter.incrementCount(word, 1.0);
+			wordToTagCounters.incrementCount(word, tag, 1.0);
+		}
+
+		/* Adds the counts of a tally of trees that come after this tally's
+		 * trees in the training set. */
+		void merge(Tally other) {
+			for (String word : other.wordToTagCounters.keySet()) {
+				Counter<String> wordTags = other.wordToTagCounters.getCounter(word);
+				for (String tag : wordTags.keySet()) {
+					wordToTagCounters.incrementCount(word, tag, wordTags.getCount(tag));
+				}
+			}
+			tagCounter.incrementAll(other.tagCounter);
+			wordCounter.incrementAll(other.wordCounter);
+			for (Map.Entry<String, String> entry : other.firstTags.entrySet()) {
+				if (! firstTags.containsKey(entry.getKey())) {
+					firstTags.put(entry.getKey(), entry.getValue());
+				}
+			}
+			totalTokens += other.totalTokens;
 		}
-		totalTokens += 1.0;
-		tagCounter.incrementCount(tag, 1.0);
-		wordCounter.incrementCount(word, 1.0);
-		wordToTagCounters.incrementCount(word, tag, 1.0);
 	}
 }
@@ -0,0 +1,255 @@
+package cs224n.assignment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import cs224n.util.Index;
+
+/**
+ * Binary snapshot of a trained PCFGParser model, so parsing can start
+ * without re-reading and re-annotating the treebank.  The file holds, in
+ * order:
+ *
+ *   header:   magic number, format version, vertical and horizontal
+ *             markovization orders used in training
+ *   symbols:  the symbol index, as a count followed by UTF-8 strings
+ *   grammar:  the CompiledGrammar arrays, each as a length followed by
+ *             its elements
+ *   lexicon:  the Lexicon totals and counters
+ *
+ * All numbers are big-endian.  The file is loaded through a memory-mapped
+ * FileChannel, and the grammar arrays are copied out with bulk gets, so
+ * only the strings need real decoding.  Every length, symbol id and offset
+ * is checked as it is read, so a corrupt or truncated file fails to load
+ * with an IOException rather than failing later in the parser.
+ */
+public class ModelFile {
+
+  static final int MAGIC = 0x50434647; // "PCFG"
+  static final int VERSION = 2;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int verticalOrder;
+  private final int horizontalOrder;
+  private final Index<String> symbols;
+  private final CompiledGrammar grammar;
+  private final Lexicon lexicon;
+
+  public ModelFile(int verticalOrder, int horizontalOrder, Index<String> symbols,
+                   CompiledGrammar grammar, Lexicon lexicon) {
+    this.verticalOrder = verticalOrder;
+    this.horizontalOrder = horizontalOrder;
+    this.symbols = symbols;
+    this.grammar = grammar;
+    this.lexicon = lexicon;
+  }
+
+  public int getVerticalOrder() {
+    return verticalOrder;
+  }
+
+  public int getHorizontalOrder() {
+    return horizontalOrder;
+  }
+
+  public Index<String> getSymbols() {
+    return symbols;
+  }
+
+  public CompiledGrammar getGrammar() {
+    return grammar;
+  }
+
+  public Lexicon getLexicon() {
+    return lexicon;
+  }
+
+  /**
+   * Write the model to a file, replacing it if it exists.
+   */
+  public void save(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(verticalOrder);
+      out.writeInt(horizontalOrder);
+      out.writeInt(symbols.size());
+      for (String symbol : symbols) {
+        writeString(out, symbol);
+      }
+      grammar.write(out);
+      lexicon.write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Load a model written by save().
+   * @throws IOException if the file cannot be read, or is not a model
+   *         file of this format version
+   */
+  public static ModelFile load(File file) throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.remaining() < 8 || in.getInt() != MAGIC) {
+        throw new IOException("Not a model file: " + file);
+      }
+      int version = in.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported model file version " + version + " in " + file
+            + " (expected " + VERSION + ")");
+      }
+      int verticalOrder = in.getInt();
+      int horizontalOrder = in.getInt();
+      int numSymbols = readCount(in, 4);
+      Index<String> symbols = new Index<String>();
+      for (int s = 0; s < numSymbols; s++) {
+        symbols.add(readString(in));
+      }
+      if (symbols.size() != numSymbols) {
+        throw new IOException("Duplicate symbols in model file");
+      }
+      CompiledGrammar grammar = new CompiledGrammar(symbols, in);
+      Lexicon lexicon = new Lexicon(in);
+      if (in.hasRemaining()) {
+        throw new IOException(in.remaining() + " bytes of trailing data in model file");
+      }
+      return new ModelFile(verticalOrder, horizontalOrder, symbols, grammar, lexicon);
+    } catch (java.nio.BufferUnderflowException e) {
+      throw new IOException("Truncated model file: " + file);
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt model file: " + file, e);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /* Helpers shared by the CompiledGrammar and Lexicon readers and writers. */
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a count of items that take at least minBytes each, checking that
+   * it is not negative and that the rest of the buffer could hold them.
+   */
+  static int readCount(ByteBuffer in, int minBytes) throws IOException {
+    int count = in.getInt();
+    if (count < 0 || (long) count * minBytes > in.remaining()) {
+      throw new IOException("Bad count " + count + " at offset " + (in.position() - 4));
+    }
+    return count;
+  }
+
+  /**
+   * Reads an int that must lie in [0, bound).
+   */
+  static int readIndex(ByteBuffer in, int bound) throws IOException {
+    int index = in.getInt();
+    if (index < 0 || index >= bound) {
+      throw new IOException("Index " + index + " out of range [0, " + bound + ") at offset "
+          + (in.position() - 4));
+    }
+    return index;
+  }
+
+  static String readString(ByteBuffer in) throws IOException {
+    byte[] bytes = new byte[readCount(in, 1)];
+    in.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  static void writeInts(DataOutputStream out, int[] array) throws IOException {
+    out.writeInt(array.length);
+    for (int x : array) {
+      out.writeInt(x);
+    }
+  }
+
+  /**
+   * Reads an int array.
+   * @param length required length, or -1 for any
+   */
+  static int[] readInts(ByteBuffer in, int length) throws IOException {
+    int[] array = new int[readLength(in, 4, length)];
+    in.asIntBuffer().get(array);
+    in.position(in.position() + 4 * array.length);
+    return array;
+  }
+
+  /**
+   * Reads an int array of ids, each in [0, bound).
+   * @param length required length, or -1 for any
+   */
+  static int[] readIds(ByteBuffer in, int length, int bound) throws IOException {
+    int[] array = readInts(in, length);
+    for (int id : array) {
+      if (id < 0 || id >= bound) {
+        throw new IOException("Id " + id + " out of range [0, " + bound + ")");
+      }
+    }
+    return array;
+  }
+
+  /**
+   * Reads CSR offsets: length entries rising from 0 to total.
+   * @param total required last entry, or -1 for any
+   */
+  static int[] readOffsets(ByteBuffer in, int length, int total) throws IOException {
+    int[] array = readInts(in, length);
+    if (array.length == 0 || array[0] != 0) {
+      throw new IOException("Offsets do not start at 0");
+    }
+    for (int i = 1; i < array.length; i++) {
+      if (array[i] < array[i - 1]) {
+        throw new IOException("Offsets decrease at " + i);
+      }
+    }
+    if (total >= 0 && array[array.length - 1] != total) {
+      throw new IOException("Offsets end at " + array[array.length - 1] + ", not " + total);
+    }
+    return array;
+  }
+
+  static void writeDoubles(DataOutputStream out, double[] array) throws IOException {
+    out.writeInt(array.length);
+    for (double x : array) {
+      out.writeDouble(x);
+    }
+  }
+
+  /**
+   * Reads a double array.
+   * @param length required length, or -1 for any
+   */
+  static double[] readDoubles(ByteBuffer in, int length) throws IOException {
+    double[] array = new double[readLength(in, 8, length)];
+    in.asDoubleBuffer().get(array);
+    in.position(in.position() + 8 * array.length);
+    return array;
+  }
+
+  private static int readLength(ByteBuffer in, int elementBytes, int length) throws IOException {
+    int actual = readCount(in, elementBytes);
+    if (length >= 0 && actual != length) {
+      throw new IOException("Array of length " + actual + " where " + length + " was expected");
+    }
+    return actual;
+  }
+}
@@ -1,242 +1,752 @@
 package cs224n.assignment;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cs224n.assignment.Grammar.BinaryRule;
 import cs224n.assignment.Grammar.UnaryRule;
-import cs224n.ling.Constituent;
 import cs224n.ling.Tree;
-import cs224n.util.Pair;
-import cs224n.util.Triplet;
+import cs224n.util.Index;
 
 public class PCFGParser implements Parser {
 
-  private Grammar grammar;
   private Lexicon lexicon;
+  private TagDictionary tagDictionary;
+  private Index<String> symbols;
+  private CompiledGrammar compiledGrammar;
+  private ForkJoinPool cellPool;
+  private int trainingThreads = 1;
+  private int beamSize = 0;
+  private double beamThreshold = Double.POSITIVE_INFINITY;
+  private int verticalOrder = 1;
+  private int horizontalOrder = -1;
+  private double coarseToFineThreshold = 0;
+  private boolean logSpace = false;
+  private boolean reuseCharts = true;
+  private final ThreadLocal<Chart> workspace = new ThreadLocal<Chart>();
+  private CoarseToFinePruner pruner;
+  private volatile ParseListener listener;
+  private final AtomicLong chartEntriesFilled = new AtomicLong();
+  private long budgetNanos = 0;
+  private long budgetBinaryAttempts = 0;
+  private final AtomicLong fallbackParses = new AtomicLong();
 
   /**
    * Markovize/binarize the training trees, then learn a lexicon and grammar from these trees.
-   * @param trainTrees list of annotated trees to train on
+   * @param trainTrees list of trees to train on; it is not modified
    */
   public void train(List<Tree<String>> trainTrees) {
 
-    // Set the vertical and horizontal markovization orders (default is v = 1, h = -1)
-    int v = 1;
-    int h = -1;
-
-    // Binarize (and markovize) the training trees
-    for (int i = 0; i < trainTrees.size(); i++) {
-      trainTrees.set(i, TreeAnnotations.annotateTree(trainTrees.get(i), v, h));
+    // Binarize (and markovize) the training trees, and count their rules and
+    // taggings, and those of their coarse projections if pruning needs them
+    TrainingTally tally = new TrainingTally(trainTrees, 0, trainTrees.size());
+    if (trainingThreads == 1) {
+      tally.tallyRange();
+    } else {
+      ForkJoinPool pool = new ForkJoinPool(trainingThreads > 1
+          ? trainingThreads : Runtime.getRuntime().availableProcessors());
+      try {
+        pool.invoke(tally);
+      } finally {
+        pool.shutdown();
+      }
     }
 
     // Build lexicon and grammar
-    lexicon = new Lexicon(trainTrees);
-    grammar = new Grammar(trainTrees);
+    lexicon = new Lexicon(tally.lexiconTally);
+    Grammar grammar = new Grammar(tally.grammarTally);
+    symbols = buildSymbolIndex(grammar, lexicon);
+    compiledGrammar = new CompiledGrammar(grammar, symbols);
+    tagDictionary = new TagDictionary(lexicon, symbols);
+
+    // Build the coarse grammar from the same trees
+    pruner = coarseToFineThreshold > 0
+      ? new CoarseToFinePruner(tally.coarseGrammarTally, tally.coarseLexiconTally,
+          symbols, coarseToFineThreshold)
+      : null;
+  }
+
+  /**
+   * Write the trained grammar and lexicon to a binary model file.  The
+   * coarse-to-fine grammar is not saved; it is rebuilt only by train().
+   */
+  public void saveModel(File file) throws IOException {
+    new ModelFile(verticalOrder, horizontalOrder, symbols, compiledGrammar, lexicon).save(file);
+  }
+
+  /**
+   * Load a model written by saveModel() in place of calling train().
+   * Coarse-to-fine pruning is off for a loaded model.
+   */
+  public void loadModel(File file) throws IOException {
+    ModelFile model = ModelFile.load(file);
+    verticalOrder = model.getVerticalOrder();
+    horizontalOrder = model.getHorizontalOrder();
+    symbols = model.getSymbols();
+    compiledGrammar = model.getGrammar();
+    lexicon = model.getLexicon();
+    tagDictionary = new TagDictionary(lexicon, symbols);
+    pruner = null;
+  }
+
+  /* The trained model, for parsers that search the same grammar differently. */
+  Lexicon getLexicon() {
+    return lexicon;
+  }
+
+  TagDictionary getTagDictionary() {
+    return tagDictionary;
+  }
+
+  CompiledGrammar getCompiledGrammar() {
+    return compiledGrammar;
+  }
+
+  /**
+   * Total number of (span, symbol) entries in the final charts of all
+   * sentences parsed so far.
+   */
+  public long getChartEntriesFilled() {
+    return chartEntriesFilled.get();
   }
 
   /**
-   * Scores preterminal rules on the given sentence.
+   * Set the vertical and horizontal markovization orders used by train()
+   * (default is v = 1, h = -1).
+   */
+  public void setMarkovization(int v, int h) {
+    this.verticalOrder = v;
+    this.horizontalOrder = h;
+  }
+
+  /**
+   * Enable coarse-to-fine parsing for the next call to train(): each sentence
+   * is first parsed with a coarse grammar, and fine symbols whose coarse
+   * projection has a posterior below the threshold in a span are skipped.
+   * @param threshold minimum coarse posterior; zero or less disables the coarse pass
+   */
+  public void setCoarseToFine(double threshold) {
+    this.coarseToFineThreshold = threshold;
+  }
+
+  /**
+   * Assigns an integer id to every tag and grammar symbol, used to address the chart.
+   * @param grammar trained grammar
+   * @param lexicon trained lexicon
+   * @return index over all symbols, with ROOT first
+   */
+  static Index<String> buildSymbolIndex(Grammar grammar, Lexicon lexicon) {
+    Index<String> index = new Index<String>();
+    index.add("ROOT");
+    index.addAll(lexicon.getAllTags());
+    for (BinaryRule bRule : grammar.getBinaryRules()) {
+      index.add(bRule.getParent());
+      index.add(bRule.getLeftChild());
+      index.add(bRule.getRightChild());
+    }
+    for (UnaryRule uRule : grammar.getUnaryRules()) {
+      index.add(uRule.getParent());
+      index.add(uRule.getChild());
+    }
+    return index;
+  }
+
+  /**
+   * Scores preterminal rules on the given sentence.  Only the word's
+   * candidate tags are scored; every other tag would score zero.
    * @param sentence the sentence to parse
    * @param i index of word in sentence
-   * @param scoreBack map containing scores and backpointers for a given constituent
-   * @param seen map containing constituents in a given span
+   * @param chart chart holding scores and backpointers
    */
-  public void getPretermRules(
-    List<String> sentence,
-    int i,
-    HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>> scoreBack,
-    HashMap<Pair<Integer, Integer>, HashSet<String>> seen)
-  {
-    for (String A : lexicon.getAllTags()) {
-      double score = lexicon.scoreTagging(sentence.get(i), A);
-      addSeen(seen, i, i + 1, A);
-      scoreBack.put(new Constituent<String>(A, i, i + 1), new Triplet<Constituent<String>, Constituent<String>, Double>(
-        new Constituent<String>(sentence.get(i), i, i), null, score));
+  public void getPretermRules(List<String> sentence, int i, Chart chart) {
+    TagDictionary.Taggings taggings = tagDictionary.getTaggings(sentence.get(i));
+    int[] tags = taggings.getTags();
+    double[] scores = chart.isLogSpace() ? taggings.getLogScores() : taggings.getScores();
+    for (int t = 0; t < tags.length; t++) {
+      chart.relax(i, i + 1, tags[t], scores[t], -1, -1, -1);
+    }
+  }
+
+  /**
+   * Scores unary rules with a single pass over the grammar's unary closure.
+   * Every symbol already in the span is extended by its best unary chain to
+   * each ancestor, so no fixpoint iteration is needed.
+   * @param begin begin index of span
+   * @param end end index of span
+   * @param chart chart holding scores and backpointers
+   */
+  public void handleUnaries(int begin, int end, Chart chart) {
+    scoreUnaries(begin, end, chart, new CellWork(false));
+  }
+
+  /* handleUnaries, adding the number of closure rules applied to work. */
+  private void scoreUnaries(int begin, int end, Chart chart, CellWork work) {
+    boolean logSpace = chart.isLogSpace();
+    int[] closureOffsets = compiledGrammar.getClosureOffsets();
+    int[] closureParents = compiledGrammar.getClosureParents();
+    double[] closureScores = logSpace ? compiledGrammar.getClosureLogScores() : compiledGrammar.getClosureScores();
+    double[] scores = logSpace ? null : chart.getScores(begin, end);
+    float[] logScores = logSpace ? chart.getLogScores(begin, end) : null;
+    int[] cands = chart.getSymbols(begin, end);
+    // only the symbols built before the pass; chains already cover unaries over unaries
+    int numCands = chart.getSymbolCount(begin, end);
+    long applications = 0;
+    for (int c = 0; c < numCands; c++) {
+      int child = cands[c];
+      double childScore = logSpace ? logScores[child] : scores[child];
+      applications += closureOffsets[child + 1] - closureOffsets[child];
+      for (int u = closureOffsets[child]; u < closureOffsets[child + 1]; u++) {
+        chart.relax(begin, end, closureParents[u], combine(logSpace, childScore, closureScores[u]), -1, child, u);
+      }
     }
+    work.unaryApplications += applications;
   }
 
   /**
-   * Scores unary rules.
+   * Scores binary rules.
    * @param begin begin index of span
    * @param end end index of span
-   * @param scoreBack map containing scores and backpointers for a given constituent
-   * @param onlyUnary whether we are handling unary rules for the first time
-   * @param seen map containing constituents in a given span
+   * @param chart chart holding scores and backpointers
+   */
+  public void getBinaryRules(int begin, int end, Chart chart) {
+    scoreBinaryRules(begin, end, chart, new CellWork(false));
+  }
+
+  /*
+   * getBinaryRules, adding the rule applications scored and the number of
+   * them stored in the chart to work.
    */
-  public void handleUnaries(
-    int begin,
-    int end,
-    HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>> scoreBack,
-    boolean onlyUnary,
-    HashMap<Pair<Integer, Integer>, HashSet<String>> seen)
-  {
-    boolean added = true;
-    HashSet<String> cands = new HashSet<String>();
-    HashSet<String> toAdd = seen.get(new Pair<Integer, Integer>(begin, end));
-
-    while (added) {
-      added = false;
-      if (toAdd == null) break;
-      cands.addAll(toAdd);
-      for (String child : cands) {
-        for (UnaryRule uRule : grammar.getUnaryRulesByChild(child)) {
-          Constituent<String> childConstituent = new Constituent<String>(uRule.getChild(), begin, end);
-          Constituent<String> parentConstituent = new Constituent<String>(uRule.getParent(), begin, end);
-          Triplet<Constituent<String>, Constituent<String>, Double> scoreTriplet = scoreBack.get(childConstituent);
-          double childScores = scoreTriplet == null ? 0 : scoreTriplet.getThird();
-          if (!onlyUnary || childScores > 0) {
-            double prob = childScores * uRule.getScore();
-            scoreTriplet = scoreBack.get(parentConstituent);
-            double parentScore = scoreTriplet == null ? 0 : scoreTriplet.getThird();
-            if (prob > parentScore) {
-              added = true;
-              addSeen(seen, begin, end, parentConstituent.getLabel());
-              scoreBack.put(parentConstituent, new Triplet<Constituent<String>, Constituent<String>, Double>(
-                childConstituent, null, prob));
+  private void scoreBinaryRules(int begin, int end, Chart chart, CellWork work) {
+    boolean logSpace = chart.isLogSpace();
+    // score of a symbol missing from a span: it can be skipped without relaxing
+    double absent = logSpace ? Double.NEGATIVE_INFINITY : 0;
+    int[] pairLeft = compiledGrammar.getPairLeftChildren();
+    int[] pairRight = compiledGrammar.getPairRightChildren();
+    int[] pairOffsets = compiledGrammar.getPairOffsets();
+    int[] leftOffsets = compiledGrammar.getLeftOffsets();
+    int[] rightOffsets = compiledGrammar.getRightOffsets();
+    int[] pairsByRight = compiledGrammar.getPairsByRight();
+    long[] leftChildSet = compiledGrammar.getLeftChildSet();
+    long[] rightChildSet = compiledGrammar.getRightChildSet();
+    int[] parents = compiledGrammar.getBinaryParents();
+    double[] ruleScores = logSpace ? compiledGrammar.getBinaryLogScores() : compiledGrammar.getBinaryScores();
+
+    long attempts = 0;
+    long stored = 0;
+    for (int split = begin + 1; split < end; split++) {
+      int leftCount = chart.getSymbolCount(begin, split);
+      int rightCount = chart.getSymbolCount(split, end);
+      if (leftCount == 0 || rightCount == 0) continue;
+      double[] leftScores = logSpace ? null : chart.getScores(begin, split);
+      double[] rightScores = logSpace ? null : chart.getScores(split, end);
+      float[] leftLogScores = logSpace ? chart.getLogScores(begin, split) : null;
+      float[] rightLogScores = logSpace ? chart.getLogScores(split, end) : null;
+
+      // walk the child pairs of whichever span holds fewer symbols, taking
+      // only its symbols that are a child of some rule on that side
+      if (rightCount < leftCount) {
+        long[] rightMembers = chart.getMembers(split, end);
+        for (int w = 0; w < rightMembers.length; w++) {
+          for (long bits = rightMembers[w] & rightChildSet[w]; bits != 0; bits &= bits - 1) {
+            int C = (w << 6) + Long.numberOfTrailingZeros(bits);
+            double cScore = logSpace ? rightLogScores[C] : rightScores[C];
+            for (int k = rightOffsets[C]; k < rightOffsets[C + 1]; k++) {
+              int pair = pairsByRight[k];
+              int B = pairLeft[pair];
+              double bScore = logSpace ? leftLogScores[B] : leftScores[B];
+              if (bScore == absent) continue;
+              double childScore = combine(logSpace, bScore, cScore);
+              attempts += pairOffsets[pair + 1] - pairOffsets[pair];
+              for (int r = pairOffsets[pair]; r < pairOffsets[pair + 1]; r++) {
+                if (chart.relax(begin, end, parents[r], combine(logSpace, childScore, ruleScores[r]), split, B, C)) stored++;
+              }
+            }
+          }
+        }
+      } else {
+        long[] leftMembers = chart.getMembers(begin, split);
+        for (int w = 0; w < leftMembers.length; w++) {
+          for (long bits = leftMembers[w] & leftChildSet[w]; bits != 0; bits &= bits - 1) {
+            int B = (w << 6) + Long.numberOfTrailingZeros(bits);
+            double bScore = logSpace ? leftLogScores[B] : leftScores[B];
+            for (int pair = leftOffsets[B]; pair < leftOffsets[B + 1]; pair++) {
+              int C = pairRight[pair];
+              double cScore = logSpace ? rightLogScores[C] : rightScores[C];
+              if (cScore == absent) continue;
+              double childScore = combine(logSpace, bScore, cScore);
+              attempts += pairOffsets[pair + 1] - pairOffsets[pair];
+              for (int r = pairOffsets[pair]; r < pairOffsets[pair + 1]; r++) {
+                if (chart.relax(begin, end, parents[r], combine(logSpace, childScore, ruleScores[r]), split, B, C)) stored++;
+              }
             }
           }
         }
       }
     }
+    work.binaryAttempts += attempts;
+    work.binaryStored += stored;
+  }
+
+  /* Score of two independent events: a product, or a sum of log scores. */
+  private static double combine(boolean logSpace, double a, double b) {
+    return logSpace ? a + b : a * b;
   }
 
   /**
-   * Scores binary rules.
+   * Recursively build a parse tree by following the chart's backpointers.
+   * @param sentence the sentence being parsed
+   * @param chart chart holding scores and backpointers
    * @param begin begin index of span
    * @param end end index of span
-   * @param scoreBack map containing scores and backpointers for a given constituent
-   * @param seen map containing constituents in a given span
+   * @param symbol id of the symbol currently being processed
+   * @return a parse tree
    */
-  public void getBinaryRules(
-    int begin,
-    int end,
-    HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>> scoreBack,
-    HashMap<Pair<Integer, Integer>, HashSet<String>> seen)
-  {
-    for (int split = begin + 1; split < end; split++) {
-      HashSet<String> seenStrings = seen.get(new Pair<Integer, Integer>(begin, split));
-      HashSet<String> seenStringsEnd = seen.get(new Pair<Integer, Integer>(split, end));
-      if (seenStringsEnd == null) continue;
-      if (seenStrings == null) continue;
-      HashSet<String> first = seenStrings;
-      HashSet<String> second = seenStringsEnd;
-      boolean isRightChild = false;
-
-      if (seenStringsEnd.size() < seenStrings.size()) {
-        isRightChild = true;
-        first = seenStringsEnd;
-        second = seenStrings;
+  private Tree<String> recursiveBuildTree(List<String> sentence, Chart chart, int begin, int end, int symbol) {
+    int split = chart.getSplit(begin, end, symbol);
+    int left = chart.getLeftChild(begin, end, symbol);
+    List<Tree<String>> children = new ArrayList<Tree<String>>();
+    if (split >= 0) {
+      children.add(recursiveBuildTree(sentence, chart, begin, split, left));
+      children.add(recursiveBuildTree(sentence, chart, split, end, chart.getRightChild(begin, end, symbol)));
+    } else if (left >= 0) {
+      //unary chain: rebuild the intermediate symbols of the closure rule bottom-up
+      Tree<String> subTree = recursiveBuildTree(sentence, chart, begin, end, left);
+      int rule = chart.getRightChild(begin, end, symbol);
+      int[] pathOffsets = compiledGrammar.getClosurePathOffsets();
+      int[] path = compiledGrammar.getClosurePath();
+      for (int k = pathOffsets[rule + 1] - 1; k >= pathOffsets[rule]; k--) {
+        subTree = new Tree<String>(symbols.get(path[k]), Collections.singletonList(subTree));
       }
+      children.add(subTree);
+    } else {
+      //at a preterminal, the child is the word itself
+      children.add(new Tree<String>(sentence.get(begin)));
+    }
+    return new Tree<String>(symbols.get(symbol), children);
+  }
+
+  /**
+   * Build a parse tree using the chart's backpointers. Note that the root node is set to "ROOT".
+   * @param sentence the sentence being parsed
+   * @param chart chart holding scores and backpointers
+   * @return a parse tree
+   */
+  Tree<String> buildTree(List<String> sentence, Chart chart) {
+    int root = symbols.indexOf("ROOT");
+    if (sentence.isEmpty() || !chart.contains(0, sentence.size(), root)) {
+      return new Tree<String>("ROOT");
+    }
+    return recursiveBuildTree(sentence, chart, 0, sentence.size(), root);
+  }
+
+  /**
+   * Work done filling chart cells: the rule applications always, since the
+   * budget counts binary attempts, and the time of each phase if timed.
+   * Whoever fills cells sums them into its own CellWork, so nothing is
+   * shared while the chart is filled; a sentence's totals are published to
+   * its ParseMetrics once, at the end.
+   */
+  private static class CellWork {
+    final boolean timed;
+    int cellsFilled;
+    long preterminalNanos;
+    long binaryNanos;
+    long unaryNanos;
+    long binaryAttempts;
+    long binaryStored;
+    long unaryApplications;
+
+    CellWork(boolean timed) {
+      this.timed = timed;
+    }
+
+    void add(CellWork other) {
+      cellsFilled += other.cellsFilled;
+      preterminalNanos += other.preterminalNanos;
+      binaryNanos += other.binaryNanos;
+      unaryNanos += other.unaryNanos;
+      binaryAttempts += other.binaryAttempts;
+      binaryStored += other.binaryStored;
+      unaryApplications += other.unaryApplications;
+    }
+
+    void publish(ParseMetrics metrics) {
+      metrics.addCells(cellsFilled, preterminalNanos, binaryNanos, binaryAttempts, binaryStored,
+          unaryNanos, unaryApplications);
+    }
+  }
+
+  /**
+   * Fills one chart cell: preterminals for single words, binary rules for
+   * longer spans, followed by unary rules.  Cells of the same span length
+   * only read shorter spans, so they can be filled in any order or in parallel.
+   * @param sentence the sentence being parsed
+   * @param chart chart holding scores and backpointers
+   * @param begin begin index of span
+   * @param end end index of span
+   * @param work work to add the cell's rule applications, and times, to
+   */
+  private void fillCell(List<String> sentence, Chart chart, int begin, int end, CellWork work) {
+    if (work.timed) {
+      fillCellTimed(sentence, chart, begin, end, work);
+      return;
+    }
+    if (end - begin == 1) {
+      getPretermRules(sentence, begin, chart);
+    } else {
+      scoreBinaryRules(begin, end, chart, work);
+    }
+    scoreUnaries(begin, end, chart, work);
+    if (isBeamEnabled()) {
+      chart.prune(begin, end, beamSize, beamThreshold);
+    }
+    work.cellsFilled++;
+  }
+
+  /* fillCell, timing each phase. */
+  private void fillCellTimed(List<String> sentence, Chart chart, int begin, int end, CellWork work) {
+    long start = System.nanoTime();
+    boolean preterminal = end - begin == 1;
+    if (preterminal) {
+      getPretermRules(sentence, begin, chart);
+    } else {
+      scoreBinaryRules(begin, end, chart, work);
+    }
+    long lexicalOrBinary = System.nanoTime();
+    scoreUnaries(begin, end, chart, work);
+    long unary = System.nanoTime();
+    if (isBeamEnabled()) {
+      chart.prune(begin, end, beamSize, beamThreshold);
+    }
+    if (preterminal) {
+      work.preterminalNanos += lexicalOrBinary - start;
+    } else {
+      work.binaryNanos += lexicalOrBinary - start;
+    }
+    work.unaryNanos += unary - lexicalOrBinary;
+    work.cellsFilled++;
+  }
+
+  /**
+   * Fills the cells of one span length whose begin index lies in [lo, hi),
+   * forking halves of the range until it is small enough to fill directly.
+   * Once done, work holds the work of every cell in the range.
+   */
+  private class SpanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
 
-      for (String B : first) {
-        List<BinaryRule> rules;
-        if (isRightChild) {
-          rules = grammar.getBinaryRulesByRightChild(B);
+    private final List<String> sentence;
+    private final Chart chart;
+    private final int span;
+    private final int lo;
+    private final int hi;
+    final CellWork work;
 
-        } else {
-          rules = grammar.getBinaryRulesByLeftChild(B);
+    protected void compute() {
+      if (hi - lo <= 1) {
+        for (int begin = lo; begin < hi; begin++) {
+          fillCell(sentence, chart, begin, begin + span, work);
         }
-        for (BinaryRule bRule : rules) {
-          if (isRightChild && !second.contains(bRule.getLeftChild())) {
-            continue;
-          } else if (!isRightChild && !second.contains(bRule.getRightChild())) {
-            continue;
-          }
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      SpanTask left = new SpanTask(sentence, chart, work.timed, span, lo, mid);
+      SpanTask right = new SpanTask(sentence, chart, work.timed, span, mid, hi);
+      invokeAll(left, right);
+      work.add(left.work);
+      work.add(right.work);
+    }
 
-          Constituent<String> bConstituent = new Constituent<String>(bRule.getLeftChild(), begin, split);
-          Constituent<String> cConstituent = new Constituent<String>(bRule.getRightChild(), split, end);
-          Constituent<String> aConstituent = new Constituent<String>(bRule.getParent(), begin, end);
+    SpanTask(List<String> sentence, Chart chart, boolean timed, int span, int lo, int hi) {
+      this.sentence = sentence;
+      this.chart = chart;
+      this.work = new CellWork(timed);
+      this.span = span;
+      this.lo = lo;
+      this.hi = hi;
+    }
+  }
 
-          double bScore = scoreBack.get(bConstituent).getThird();
-          double prob = bScore * scoreBack.get(cConstituent).getThird();
+  /**
+   * Annotates the training trees with index in [lo, hi) and tallies their
+   * grammar rules and lexicon taggings, forking halves of the range until
+   * it is small enough to tally directly.  Halves are merged left then
+   * right, so the tallies come out as if counted in tree order.  If the
+   * coarse grammar will be needed, the coarse projection of each annotated
+   * tree is tallied as well, so no annotated tree outlives its tallying.
+   */
+  private class TrainingTally extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int SHARD_SIZE = 256;
 
-          //prior on rule
-          prob *= bRule.getScore();
+    private final List<Tree<String>> trees;
+    private final int lo;
+    private final int hi;
+    Grammar.Tally grammarTally;
+    Lexicon.Tally lexiconTally;
+    Grammar.Tally coarseGrammarTally;
+    Lexicon.Tally coarseLexiconTally;
 
-          Triplet<Constituent<String>, Constituent<String>, Double> aTriplet = scoreBack.get(aConstituent);
-          double aScore = aTriplet == null ? 0 : aTriplet.getThird();
-          if (prob > aScore) {
-            addSeen(seen, aConstituent.getStart(), aConstituent.getEnd(), aConstituent.getLabel());
-            scoreBack.put(aConstituent, new Triplet<Constituent<String>, Constituent<String>, Double>(
-              bConstituent, cConstituent, prob));
-          }
+    protected void compute() {
+      if (hi - lo <= SHARD_SIZE) {
+        tallyRange();
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      TrainingTally left = new TrainingTally(trees, lo, mid);
+      TrainingTally right = new TrainingTally(trees, mid, hi);
+      invokeAll(left, right);
+      grammarTally = left.grammarTally;
+      grammarTally.merge(right.grammarTally);
+      lexiconTally = left.lexiconTally;
+      lexiconTally.merge(right.lexiconTally);
+      if (coarseToFineThreshold > 0) {
+        coarseGrammarTally = left.coarseGrammarTally;
+        coarseGrammarTally.merge(right.coarseGrammarTally);
+        coarseLexiconTally = left.coarseLexiconTally;
+        coarseLexiconTally.merge(right.coarseLexiconTally);
+      }
+    }
+
+    /* Tallies the whole range in the calling thread. */
+    void tallyRange() {
+      grammarTally = new Grammar.Tally();
+      lexiconTally = new Lexicon.Tally();
+      if (coarseToFineThreshold > 0) {
+        coarseGrammarTally = new Grammar.Tally();
+        coarseLexiconTally = new Lexicon.Tally();
+      }
+      for (int i = lo; i < hi; i++) {
+        Tree<String> tree = TreeAnnotations.annotateTree(trees.get(i), verticalOrder, horizontalOrder);
+        grammarTally.add(tree);
+        lexiconTally.add(tree);
+        if (coarseToFineThreshold > 0) {
+          Tree<String> coarseTree = TreeAnnotations.projectTree(tree);
+          coarseGrammarTally.add(coarseTree);
+          coarseLexiconTally.add(coarseTree);
         }
       }
     }
+
+    TrainingTally(List<Tree<String>> trees, int lo, int hi) {
+      this.trees = trees;
+      this.lo = lo;
+      this.hi = hi;
+    }
   }
 
   /**
-   * Adds a new label tag to the set of seen tags for a given span.
-   * @param seen map containing constituents in a given span
-   * @param begin begin index of span
-   * @param end end index of span
-   * @param label tag to be added to the hashset for this span
+   * Report a ParseMetrics for every sentence parsed from now on to a
+   * listener.  With no listener, parsing neither times phases nor builds
+   * metrics.
+   * @param listener listener to call after each parse, or null for none
    */
-  private void addSeen(HashMap<Pair<Integer, Integer>, HashSet<String>> seen, int begin, int end, String label) {
-    if (seen.get(new Pair<Integer, Integer>(begin, end)) == null) {
-      HashSet<String> toAdd = new HashSet<String>();
-      toAdd.add(label);
-      seen.put(new Pair<Integer, Integer>(begin, end), toAdd);
-    } else {
-      seen.get(new Pair<Integer, Integer>(begin, end)).add(label);
+  public void setParseListener(ParseListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Annotate and count the training trees in parallel shards on a fork-join
+   * pool for the next call to train().  The trained model is the same
+   * however many threads are used.
+   * @param numThreads pool size; 1 trains on the calling thread, zero or less
+   *        uses one thread per available processor
+   */
+  public void setTrainingParallelism(int numThreads) {
+    this.trainingThreads = numThreads;
+  }
+
+  /**
+   * Fill the cells of each span length in parallel on a fork-join pool, so a
+   * single long sentence can use several cores.  Span lengths are processed
+   * in order, with a barrier between them.  Call shutdown() once done
+   * parsing to stop the pool's threads.
+   * @param numThreads pool size; 1 or less parses each sentence on the calling thread
+   */
+  public void setCellParallelism(int numThreads) {
+    if (cellPool != null) {
+      cellPool.shutdown();
     }
+    cellPool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
   }
 
   /**
-   * Merges a left tree and a right tree together under the current node.
-   * @param t1 first tree (left)
-   * @param t2 second tree (right)
-   * @param currentNode name of the new tree's node
-   * @return a merged tree
+   * Stops the threads started by setCellParallelism().  Parsing afterwards
+   * fills cells on the calling thread.
    */
-  private Tree<String> merge(Tree<String> t1, Tree<String> t2, Constituent<String> currentNode) {
-    List<Tree<String>> children = new ArrayList<Tree<String>>();
-    if (t1 != null) children.add(t1);
-    if (t2 != null) children.add(t2);
-    return new Tree<String>(currentNode.getLabel(), children);
+  public void shutdown() {
+    setCellParallelism(1);
   }
 
   /**
-   * Recursively build a parse tree using the scoreBack HashMap of backpointers.
-   * @param currentNode the node currently being processed
-   * @param scoreBack map containing scores and backpointers for a given constituent
-   * @return a parse tree
+   * Prune every chart cell to a beam once its binary and unary rules are scored.
+   * @param beamSize keep at most this many symbols per cell; zero or less for no limit
+   * @param beamThreshold drop symbols whose log probability is more than this far below
+   *        the best in the cell; positive infinity for no threshold
+   */
+  public void setBeam(int beamSize, double beamThreshold) {
+    this.beamSize = beamSize;
+    this.beamThreshold = beamThreshold;
+  }
+
+  /**
+   * Score in log space with a float chart instead of multiplying double
+   * probabilities.  Products of probabilities underflow to zero on
+   * sentences of roughly 40 words or more, leaving no parse; log scores do not.
    */
-  private Tree<String> recursiveBuildTree(
-    Constituent<String> currentNode,
-    HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>> scoreBack)
-  {
-    if (currentNode == null) return null;
-    Triplet<Constituent<String>, Constituent<String>, Double> children = scoreBack.get(currentNode);
+  public void setLogSpace(boolean logSpace) {
+    this.logSpace = logSpace;
+  }
 
-    //at a terminal, I hope!
-    if (children == null) return new Tree<String>(currentNode.getLabel());
+  public boolean isLogSpace() {
+    return logSpace;
+  }
 
-    //else, not not a terminal
-    Constituent<String> child1 = children.getFirst();
-    Constituent<String> child2 = children.getSecond();
+  /**
+   * Whether each thread reuses one chart across sentences (the default) or
+   * allocates a fresh chart for every sentence.  A reused chart stays as
+   * large as the longest sentence its thread has parsed.
+   */
+  public void setChartReuse(boolean reuseCharts) {
+    this.reuseCharts = reuseCharts;
+    if (!reuseCharts) workspace.remove();
+  }
 
-    //call recursive build to remove unary rules, as long as child1 is a nonterminal.
-    Tree<String> subTree1 = recursiveBuildTree(child1, scoreBack);
-    Tree<String> subTree2 = recursiveBuildTree(child2, scoreBack);
-    return merge(subTree1, subTree2, currentNode);
+  public boolean isBeamEnabled() {
+    return beamSize > 0 || beamThreshold != Double.POSITIVE_INFINITY;
   }
 
   /**
-   * Build a parse tree using the scoreBack HashMap of backpointers. Note that the root node is set to "ROOT".
-   * @param len length of the sentence to be parsed
-   * @param scoreBack map containing scores and backpointers for a given constituent
-   * @return a parse tree
+   * Give each sentence a budget of time or work.  Between span lengths, once
+   * the single-word spans are filled, getBestParse stops filling the chart
+   * if the sentence is over budget, and stitches together the best analyses
+   * of the spans it did fill.  The coarse pass of coarse-to-fine parsing is
+   * not budgeted.
+   * @param maxNanos wall time for each sentence in nanoseconds; zero or less for no limit
+   * @param maxBinaryAttempts binary rule applications tried for each sentence;
+   *        zero or less for no limit
+   */
+  public void setParseBudget(long maxNanos, long maxBinaryAttempts) {
+    this.budgetNanos = maxNanos;
+    this.budgetBinaryAttempts = maxBinaryAttempts;
+  }
+
+  /**
+   * Number of sentences parsed so far whose budget ran out, so that their
+   * parse was stitched together from partial analyses.
+   */
+  public long getFallbackParses() {
+    return fallbackParses.get();
+  }
+
+  /**
+   * Populate the chart bottom-up, one span length (anti-diagonal) at a time,
+   * until the sentence's budget runs out.
+   * @param sentence sentence to parse
+   * @param chart empty chart for the sentence
+   * @param work work of the sentence so far, updated with the work of
+   *        each cell filled here
+   * @param start System.nanoTime() when parsing of the sentence began
+   * @return the longest span length filled; the sentence length unless
+   *         the budget ran out
+   */
+  private int fillChart(List<String> sentence, Chart chart, CellWork work, long start) {
+    int len = sentence.size();
+    for (int span = 1; span <= len; span++) {
+      if (span > 1 && isOverBudget(start, work.binaryAttempts)) {
+        return span - 1;
+      }
+      if (cellPool != null) {
+        SpanTask task = new SpanTask(sentence, chart, work.timed, span, 0, len - span + 1);
+        cellPool.invoke(task);
+        work.add(task.work);
+      } else {
+        for (int begin = 0; begin <= len - span; begin++) {
+          fillCell(sentence, chart, begin, begin + span, work);
+        }
+      }
+    }
+    return len;
+  }
+
+  private boolean isOverBudget(long start, long attempts) {
+    return (budgetNanos > 0 && System.nanoTime() - start > budgetNanos)
+        || (budgetBinaryAttempts > 0 && attempts > budgetBinaryAttempts);
+  }
+
+  /**
+   * Builds a parse from a chart filled only up to some span length: ROOT
+   * over the fewest filled spans that cover the sentence, breaking ties by
+   * the highest product of their best symbols' scores.  (The product alone
+   * would always favor single words, whose scores include no rules.)  Each
+   * span contributes the subtree of its best symbol other than ROOT.
+   * @param sentence the sentence being parsed
+   * @param chart chart filled for every span of at most maxSpan words
+   * @param maxSpan longest span length filled
+   * @return the stitched parse, still annotated, or a bare ROOT if no
+   *         sequence of filled spans covers the sentence
+   */
+  Tree<String> buildStitchedTree(List<String> sentence, Chart chart, int maxSpan) {
+    int len = sentence.size();
+    int root = symbols.indexOf("ROOT");
+    int[] pieces = new int[len + 1];
+    double[] best = new double[len + 1];
+    int[] backBegin = new int[len + 1];
+    int[] backSymbol = new int[len + 1];
+    Arrays.fill(pieces, Integer.MAX_VALUE);
+    Arrays.fill(best, Double.NEGATIVE_INFINITY);
+    pieces[0] = 0;
+    best[0] = 0;
+    for (int end = 1; end <= len; end++) {
+      for (int begin = Math.max(0, end - maxSpan); begin < end; begin++) {
+        if (pieces[begin] == Integer.MAX_VALUE || pieces[begin] + 1 > pieces[end]) continue;
+        int[] present = chart.getSymbols(begin, end);
+        for (int k = chart.getSymbolCount(begin, end) - 1; k >= 0; k--) {
+          if (present[k] == root) continue;
+          double score = best[begin] + chart.getLogScore(begin, end, present[k]);
+          if (pieces[begin] + 1 < pieces[end] || score > best[end]) {
+            pieces[end] = pieces[begin] + 1;
+            best[end] = score;
+            backBegin[end] = begin;
+            backSymbol[end] = present[k];
+          }
+        }
+      }
+    }
+    if (len == 0 || pieces[len] == Integer.MAX_VALUE) {
+      return new Tree<String>("ROOT");
+    }
+    LinkedList<Tree<String>> children = new LinkedList<Tree<String>>();
+    for (int end = len; end > 0; end = backBegin[end]) {
+      children.addFirst(recursiveBuildTree(sentence, chart, backBegin[end], end, backSymbol[end]));
+    }
+    return new Tree<String>("ROOT", new ArrayList<Tree<String>>(children));
+  }
+
+  /**
+   * Returns the calling thread's chart, emptied for a sentence of the given
+   * length.  Each thread keeps one chart, replaced by a larger one whenever
+   * a longer sentence arrives, so after warm-up parsing allocates almost
+   * nothing beyond the output tree.
    */
-  private Tree<String> buildTree(
-    int len,
-    HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>> scoreBack)
-  {
-    Constituent<String> bestRoot = new Constituent<String>("ROOT", 0, len);
-    return recursiveBuildTree(bestRoot, scoreBack);
+  Chart getWorkspace(int len) {
+    Chart chart = reuseCharts ? workspace.get() : null;
+    if (chart == null || chart.getCapacity() < len || chart.isLogSpace() != logSpace
+        || chart.getNumSymbols() != symbols.size()) {
+      chart = new Chart(len, symbols.size(), logSpace);
+      if (reuseCharts) workspace.set(chart);
+    } else {
+      chart.reset(len);
+    }
+    return chart;
   }
 
   /**
@@ -246,26 +756,39 @@ public class PCFGParser implements Parser {
    */
   public Tree<String> getBestParse(List<String> sentence) {
 
-    HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>> scoreBack =
-      new HashMap<Constituent<String>, Triplet<Constituent<String>, Constituent<String>, Double>>();
-    HashMap<Pair<Integer, Integer>, HashSet<String>> seen =
-      new HashMap<Pair<Integer, Integer>, HashSet<String>>();
-
+    long start = System.nanoTime();
     int len = sentence.size();
-
-    //populate lowest layer of the parse tree
-    for (int i = 0; i < len; i++) {
-      getPretermRules(sentence, i, scoreBack, seen);
-      handleUnaries(i, i + 1, scoreBack, true, seen);
+    ParseListener listener = this.listener;
+    ParseMetrics metrics = listener == null ? null : new ParseMetrics(len);
+    CellWork work = new CellWork(metrics != null);
+    Chart chart = getWorkspace(len);
+    if (pruner != null) {
+      chart.restrict(pruner.getAllowedSymbols(sentence), pruner.getProjection());
     }
+    int filledSpan = fillChart(sentence, chart, work, start);
 
-    for (int span = 2; span <= len; span++) {
-      for (int begin = 0; begin <= len - span; begin++) {
-        getBinaryRules(begin, begin + span, scoreBack, seen);
-        handleUnaries(begin, begin + span, scoreBack, false, seen);
-      }
+    // the coarse pass pruned away every parse, so fall back to the full chart
+    if (pruner != null && filledSpan == len && len > 0 && !chart.contains(0, len, symbols.indexOf("ROOT"))) {
+      if (metrics != null) metrics.setChartEntries(chart.getEntryCount());
+      chart.reset(len);
+      filledSpan = fillChart(sentence, chart, work, start);
+    }
+    long entries = chart.getEntryCount();
+    chartEntriesFilled.addAndGet(entries);
+    long filled = System.nanoTime();
+    boolean fallback = filledSpan < len;
+    if (fallback) fallbackParses.incrementAndGet();
+    Tree<String> bestParse = TreeAnnotations.unAnnotateTree(fallback
+        ? buildStitchedTree(sentence, chart, filledSpan) : buildTree(sentence, chart));
+    if (metrics != null) {
+      long end = System.nanoTime();
+      work.publish(metrics);
+      metrics.setFallback(fallback);
+      metrics.setChartEntries(entries);
+      metrics.setBuildNanos(end - filled);
+      metrics.setTotalNanos(end - start);
+      listener.sentenceParsed(sentence, metrics);
     }
-    Tree<String> bestParse = buildTree(len, scoreBack);
-    return TreeAnnotations.unAnnotateTree(bestParse);
+    return bestParse;
   }
 }
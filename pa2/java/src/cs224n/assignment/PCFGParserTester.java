@@ -2,10 +2,14 @@ package cs224n.assignment;
 
 import cs224n.evaluator.EnglishPennTreebankParseEvaluator;
 import cs224n.io.PennTreebankReader;
+import cs224n.io.TreebankCache;
+import cs224n.ling.CompactTreebank;
 import cs224n.ling.Tree;
 import cs224n.ling.Trees;
 import cs224n.util.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -18,51 +22,244 @@ public class PCFGParserTester {
 	// Longest sentence length that will be tested on.
 	private static int MAX_LENGTH = 20;
 
-	private static void testParser(Parser parser, List<Tree<String>> testTrees) {
+	// Default -path and -data options: where the data sets are, and which to use.
+	public static final String DEFAULT_PATH = "/afs/ir/class/cs224n/data/pa2";
+	public static final String DEFAULT_DATA = "miniTest";
+
+	// Directory of cached normalized trees, or null to always read the .mrg files.
+	private static File TREE_CACHE = null;
+
+	// Hold loaded trees as a CompactTreebank rather than as Tree objects.
+	private static boolean COMPACT_TREES = false;
+
+	/* Accuracy and parse time of one pass over the test set. */
+	private static class TestResult {
+		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval;
+		long parseNanos;
+		int numParsed;
+		int[] sentenceLengths;
+		long[] sentenceNanos;
+	}
+
+	private static TestResult testParser(Parser parser, List<Tree<String>> testTrees, int numThreads,
+			boolean verbose) {
 		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = 
 				new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>
 		(Collections.singleton("ROOT"), 
 				new HashSet<String>(Arrays.asList(new String[] {"''", "``", ".", ":", ","})));
-		int counter = 0;
-		
-		for (Tree<String> testTree : testTrees) {
-			counter ++;
-			List<String> testSentence = testTree.getYield();
+
+		// parse every sentence that is short enough on the worker pool
+		List<Integer> testIndices = new ArrayList<Integer>();
+		List<List<String>> testSentences = new ArrayList<List<String>>();
+		for (int i = 0; i < testTrees.size(); i++) {
+			List<String> testSentence = testTrees.get(i).getYield();
 			if (testSentence.size() > MAX_LENGTH)
 				continue;
-			Tree<String> guessedTree = parser.getBestParse(testSentence);
-			System.out.println("Guess:\n"+Trees.PennTreeRenderer.render(guessedTree));
-			System.out.println("Gold:\n"+Trees.PennTreeRenderer.render(testTree));
-			System.out.println("NUMBER PARSED" + counter);
-			System.out.println("TOTAL " + testTrees.size());
-			eval.evaluate(guessedTree, testTree);
+			testIndices.add(i);
+			testSentences.add(testSentence);
+		}
+		BatchParser batchParser = new BatchParser(parser, numThreads);
+		long[] sentenceNanos = new long[testSentences.size()];
+		long start = System.nanoTime();
+		List<Tree<String>> guessedTrees = batchParser.parseAll(testSentences, sentenceNanos);
+		long parseNanos = System.nanoTime() - start;
+		batchParser.shutdown();
+
+		for (int k = 0; k < guessedTrees.size(); k++) {
+			Tree<String> guessedTree = guessedTrees.get(k);
+			Tree<String> testTree = testTrees.get(testIndices.get(k));
+			if (verbose) {
+				System.out.println("Guess:\n"+Trees.PennTreeRenderer.render(guessedTree));
+				System.out.println("Gold:\n"+Trees.PennTreeRenderer.render(testTree));
+				System.out.println("NUMBER PARSED" + (testIndices.get(k) + 1));
+				System.out.println("TOTAL " + testTrees.size());
+				eval.evaluate(guessedTree, testTree);
+			} else {
+				eval.evaluate(guessedTree, testTree, null);
+			}
 		}
-		eval.display(true);
+		if (verbose)
+			eval.display(true);
+
+		TestResult result = new TestResult();
+		result.eval = eval;
+		result.parseNanos = parseNanos;
+		result.numParsed = guessedTrees.size();
+		result.sentenceLengths = new int[testSentences.size()];
+		for (int k = 0; k < testSentences.size(); k++)
+			result.sentenceLengths[k] = testSentences.get(k).size();
+		result.sentenceNanos = sentenceNanos;
+		return result;
+	}
+
+	/* Runs the test set without printing any trees, after an untimed
+	 * warm-up pass, and reports accuracy, the latency percentiles of each
+	 * sentence length and the throughput of the whole run.  Metrics, if
+	 * given, are cleared after the warm-up pass. */
+	private static void benchmark(Parser parser, List<Tree<String>> testTrees, int numThreads,
+			ParseMetricsSummary metrics) {
+		testParser(parser, testTrees, numThreads, false);
+		if (metrics != null)
+			metrics.clear();
+		TestResult result = testParser(parser, testTrees, numThreads, false);
+		result.eval.display(true);
+
+		List<LatencyHistogram> byLength = new ArrayList<LatencyHistogram>();
+		LatencyHistogram all = new LatencyHistogram();
+		long words = 0;
+		for (int k = 0; k < result.numParsed; k++) {
+			int bucket = Math.max(0, result.sentenceLengths[k] - 1) / ParseMetricsSummary.BUCKET_WIDTH;
+			while (byLength.size() <= bucket)
+				byLength.add(new LatencyHistogram());
+			byLength.get(bucket).recordValue(result.sentenceNanos[k]);
+			all.recordValue(result.sentenceNanos[k]);
+			words += result.sentenceLengths[k];
+		}
+		System.out.println("Parse latency by sentence length (ms):");
+		System.out.printf("  %-8s %6s %9s %9s %9s %9s%n", "length", "sents", "p50", "p90", "p99", "max");
+		for (int b = 0; b < byLength.size(); b++) {
+			if (byLength.get(b).getTotalCount() > 0)
+				printLatency((b * ParseMetricsSummary.BUCKET_WIDTH + 1) + "-" + (b + 1) * ParseMetricsSummary.BUCKET_WIDTH, byLength.get(b));
+		}
+		printLatency("all", all);
+		double seconds = result.parseNanos / 1e9;
+		System.out.printf("Throughput: %.1f sentences/s, %.1f words/s (%d sentences in %.3fs on %d threads)%n",
+				result.numParsed / seconds, words / seconds, result.numParsed, seconds, numThreads);
+	}
+
+	private static void printLatency(String label, LatencyHistogram histogram) {
+		System.out.printf("  %-8s %6d %9.3f %9.3f %9.3f %9.3f%n", label, histogram.getTotalCount(),
+				histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(90) / 1e6,
+				histogram.getValueAtPercentile(99) / 1e6, histogram.getMax() / 1e6);
 	}
 
-	private static List<Tree<String>> readTrees(String basePath, int low,
+	/* Runs the test set without and then with the beam, and reports how
+	 * much accuracy the beam gives up for its speed.  Metrics, if given,
+	 * are cleared after the warm-up pass. */
+	private static void compareBeam(PCFGParser parser, List<Tree<String>> testTrees, int numThreads,
+			int beamSize, double beamThreshold, ParseMetricsSummary metrics) {
+		parser.setBeam(0, Double.POSITIVE_INFINITY);
+		// untimed warm-up pass, so neither run pays for JIT compilation
+		testParser(parser, testTrees, numThreads, false);
+		if (metrics != null)
+			metrics.clear();
+		TestResult exhaustive = testParser(parser, testTrees, numThreads, false);
+		parser.setBeam(beamSize, beamThreshold);
+		TestResult pruned = testParser(parser, testTrees, numThreads, false);
+		System.out.println("Beam comparison over " + exhaustive.numParsed + " sentences:");
+		System.out.printf("  %-36s F1: %5.2f   time: %8.3fs%n", "exhaustive",
+				100.0 * exhaustive.eval.getF1(), exhaustive.parseNanos / 1e9);
+		System.out.printf("  %-36s F1: %5.2f   time: %8.3fs   speedup: %5.2fx%n",
+				"beam (size " + beamSize + ", threshold " + beamThreshold + ")",
+				100.0 * pruned.eval.getF1(), pruned.parseNanos / 1e9,
+				exhaustive.parseNanos / (double) Math.max(1, pruned.parseNanos));
+	}
+
+	/* Runs the test set with best-first search and then with exhaustive CKY
+	 * over the same grammar, and reports how much of the chart each builds. */
+	private static void compareSearch(AStarParser parser, List<Tree<String>> testTrees, int numThreads) {
+		PCFGParser exhaustiveParser = parser.getExhaustiveParser();
+		TestResult bestFirst = testParser(parser, testTrees, numThreads, true);
+		long cellsBefore = exhaustiveParser.getChartEntriesFilled();
+		TestResult exhaustive = testParser(exhaustiveParser, testTrees, numThreads, false);
+		long chartEntries = exhaustiveParser.getChartEntriesFilled() - cellsBefore;
+		System.out.println("Search comparison over " + bestFirst.numParsed + " sentences:");
+		System.out.printf("  %-12s F1: %5.2f   time: %8.3fs   edges popped: %d (pushed %d)%n", "A*",
+				100.0 * bestFirst.eval.getF1(), bestFirst.parseNanos / 1e9,
+				parser.getEdgesPopped(), parser.getEdgesPushed());
+		System.out.printf("  %-12s F1: %5.2f   time: %8.3fs   chart entries: %d%n", "CKY",
+				100.0 * exhaustive.eval.getF1(), exhaustive.parseNanos / 1e9, chartEntries);
+	}
+
+	public static List<Tree<String>> readTrees(String basePath, int low,
 			int high) {
-		Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath,
-				low, high);
-		// normalize trees
-		Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer();
-		List<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
-		for (Tree<String> tree : trees) {
-			Tree<String> normalizedTree = treeTransformer.transformTree(tree);
-			// System.out.println(Trees.PennTreeRenderer.render(normalizedTree));
-			normalizedTreeList.add(normalizedTree);
+		// read and normalize the files in parallel, keeping file order
+		List<Tree<String>> trees;
+		if (TREE_CACHE != null)
+			trees = TreebankCache.readTrees(basePath, low, high,
+					new Trees.StandardTreeNormalizer(), TREE_CACHE, 0);
+		else
+			trees = PennTreebankReader.readTreesInParallel(basePath, low, high,
+					new Trees.StandardTreeNormalizer(), 0);
+		return COMPACT_TREES ? new CompactTreebank(trees) : trees;
+	}
+
+	/* Training, validation and test trees of a data set; lists not loaded are empty. */
+	public static class TrainTest {
+		public List<Tree<String>> trainTrees = new ArrayList<Tree<String>>();
+		public List<Tree<String>> validationTrees = new ArrayList<Tree<String>>();
+		public List<Tree<String>> testTrees = new ArrayList<Tree<String>>();
+	}
+
+	/**
+	 * Loads the data set named by the -data option, miniTest or treebank,
+	 * from the directory in -path, reporting progress on System.out.  The
+	 * training trees are skipped if -loadModel names a model to load
+	 * instead; only treebank has validation trees.  Missing -path and -data
+	 * options take their defaults.
+	 */
+	public static TrainTest loadTrainTest(Map<String, String> options) {
+		String basePath = options.containsKey("-path") ? options.get("-path") : DEFAULT_PATH;
+		String dataSet = options.containsKey("-data") ? options.get("-data") : DEFAULT_DATA;
+		boolean train = !options.containsKey("-loadModel") || options.get("-loadModel").length() == 0;
+		if (!basePath.endsWith("/"))
+			basePath += "/";
+		basePath += dataSet;
+		TrainTest data = new TrainTest();
+		if (dataSet.equals("miniTest")) {
+			if (train) {
+				System.out.print("Loading training trees...");
+				data.trainTrees = readTrees(basePath, 1, 3);
+				System.out.println("done.");
+			}
+			System.out.print("Loading test trees...");
+			data.testTrees = readTrees(basePath, 4, 4);
+			System.out.println("done.");
 		}
-		return normalizedTreeList;
+		else if (dataSet.equals("treebank")) {
+			if (train) {
+				System.out.print("Loading training trees...");
+				data.trainTrees = readTrees(basePath, 200, 2199);
+				System.out.println("done.");
+			}
+			System.out.print("Loading validation trees...");
+			data.validationTrees = readTrees(basePath, 2200, 2299);
+			System.out.println("done.");
+			System.out.print("Loading test trees...");
+			data.testTrees = readTrees(basePath, 2300, 2319);
+			System.out.println("done.");
+		}
+		else {
+			throw new RuntimeException("Bad data set mode: "+ dataSet+", use miniTest, or treebank."); 
+		}
+		return data;
 	}
 
 	public static void main(String[] args) {
 
 		// set up default options ..............................................
 		Map<String, String> options = new HashMap<String, String>();
-		options.put("-path",      "/afs/ir/class/cs224n/data/pa2");
-		options.put("-data",      "miniTest");
+		options.put("-path",      DEFAULT_PATH);
+		options.put("-data",      DEFAULT_DATA);
 		options.put("-parser",    "cs224n.assignment.BaselineParser");
 		options.put("-maxLength", "20");
+		options.put("-threads",   "1");
+		options.put("-cellThreads", "1");
+		options.put("-trainThreads", "1");
+		options.put("-beamSize",  "0");
+		options.put("-beamThreshold", "Infinity");
+		options.put("-vertical",  "1");
+		options.put("-horizontal", "-1");
+		options.put("-coarseToFine", "0");
+		options.put("-logSpace",  "false");
+		options.put("-treeCache", "");
+		options.put("-compactTrees", "false");
+		options.put("-saveModel", "");
+		options.put("-loadModel", "");
+		options.put("-metrics",   "false");
+		options.put("-benchmark", "false");
+		options.put("-timeBudget", "0");
+		options.put("-workBudget", "0");
 
 		// let command-line options supersede defaults .........................
 		options.putAll(CommandLineUtils.simpleCommandLineParser(args));
@@ -73,6 +270,9 @@ public class PCFGParserTester {
 		System.out.println();
 
 		MAX_LENGTH = Integer.parseInt(options.get("-maxLength"));
+		if (options.get("-treeCache").length() > 0)
+			TREE_CACHE = new File(options.get("-treeCache"));
+		COMPACT_TREES = Boolean.parseBoolean(options.get("-compactTrees"));
 
 		Parser parser;
 		try {
@@ -81,45 +281,58 @@ public class PCFGParserTester {
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
+		PCFGParser pcfgParser = null;
+		ParseMetricsSummary metrics = null;
+		if (parser instanceof PCFGParser)
+			pcfgParser = (PCFGParser) parser;
+		else if (parser instanceof AStarParser)
+			pcfgParser = ((AStarParser) parser).getExhaustiveParser();
+		if (pcfgParser != null) {
+			pcfgParser.setCellParallelism(Integer.parseInt(options.get("-cellThreads")));
+			pcfgParser.setTrainingParallelism(Integer.parseInt(options.get("-trainThreads")));
+			pcfgParser.setMarkovization(Integer.parseInt(options.get("-vertical")),
+					Integer.parseInt(options.get("-horizontal")));
+			pcfgParser.setCoarseToFine(Double.parseDouble(options.get("-coarseToFine")));
+			pcfgParser.setLogSpace(Boolean.parseBoolean(options.get("-logSpace")));
+			// milliseconds and binary rule applications per sentence
+			pcfgParser.setParseBudget((long) (Double.parseDouble(options.get("-timeBudget")) * 1e6),
+					Long.parseLong(options.get("-workBudget")));
+			// summed over every test pass after any warm-up pass
+			if (Boolean.parseBoolean(options.get("-metrics"))) {
+				metrics = new ParseMetricsSummary();
+				pcfgParser.setParseListener(metrics);
+			}
+		}
 		System.out.println("Using parser: " + parser);
 
 		String basePath = options.get("-path");
-		String dataSet = options.get("-data");
 		if (!basePath.endsWith("/"))
 			basePath += "/";
-		//basePath += dataSet;
 		System.out.println("Data will be loaded from: " + basePath + "\n");
 
-		List<Tree<String>> trainTrees = new ArrayList<Tree<String>>(),
-				validationTrees = new ArrayList<Tree<String>>(),
-				testTrees = new ArrayList<Tree<String>>();
-
-		if (!basePath.endsWith("/"))
-			basePath += "/";
-		basePath += dataSet;
-		if (dataSet.equals("miniTest")) {
-			System.out.print("Loading training trees...");
-			trainTrees = readTrees(basePath, 1, 3);
-			System.out.println("done.");
-			System.out.print("Loading test trees...");
-			testTrees = readTrees(basePath, 4, 4);
-			System.out.println("done.");
-		}
-		else if (dataSet.equals("treebank")) {
-			System.out.print("Loading training trees...");
-			trainTrees = readTrees(basePath, 200, 2199);
-			System.out.println("done.");
-			System.out.print("Loading validation trees...");
-			validationTrees = readTrees(basePath, 2200, 2299);
-			System.out.println("done.");
-			System.out.print("Loading test trees...");
-			testTrees = readTrees(basePath, 2300, 2319);
-			System.out.println("done.");
-		}
-		else {
-			throw new RuntimeException("Bad data set mode: "+ dataSet+", use miniTest, or treebank."); 
+		String loadModel = options.get("-loadModel");
+		boolean train = loadModel.length() == 0;
+		if ((!train || options.get("-saveModel").length() > 0) && pcfgParser == null)
+			throw new RuntimeException("Only PCFGParser models can be saved or loaded");
+		TrainTest data = loadTrainTest(options);
+		List<Tree<String>> trainTrees = data.trainTrees, testTrees = data.testTrees;
+		try {
+			if (train) {
+				parser.train(trainTrees);
+			} else {
+				System.out.print("Loading model from " + loadModel + "...");
+				pcfgParser.loadModel(new File(loadModel));
+				System.out.println("done.");
+			}
+			String saveModel = options.get("-saveModel");
+			if (saveModel.length() > 0) {
+				System.out.print("Saving model to " + saveModel + "...");
+				pcfgParser.saveModel(new File(saveModel));
+				System.out.println("done.");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-		parser.train(trainTrees);
 
     // DELETE ME LATER!
 //    validationTrees = new ArrayList<Tree<String>>();
@@ -137,6 +350,26 @@ public class PCFGParserTester {
 //    validationTrees.add(new Tree<String>("ROOT", new ArrayList<Tree<String>>(Arrays.asList(vTree1))));
 //    parser.train(validationTrees);
 
-		testParser(parser, testTrees);
+		int numThreads = Integer.parseInt(options.get("-threads"));
+		int beamSize = Integer.parseInt(options.get("-beamSize"));
+		double beamThreshold = Double.parseDouble(options.get("-beamThreshold"));
+		if (Boolean.parseBoolean(options.get("-benchmark"))) {
+			if (parser instanceof PCFGParser)
+				((PCFGParser) parser).setBeam(beamSize, beamThreshold);
+			benchmark(parser, testTrees, numThreads, metrics);
+		} else if (parser instanceof PCFGParser && (beamSize > 0 || beamThreshold != Double.POSITIVE_INFINITY)) {
+			compareBeam((PCFGParser) parser, testTrees, numThreads, beamSize, beamThreshold, metrics);
+		} else if (parser instanceof AStarParser) {
+			compareSearch((AStarParser) parser, testTrees, numThreads);
+		} else {
+			testParser(parser, testTrees, numThreads, true);
+		}
+		if (metrics != null)
+			metrics.print(System.out);
+		if (pcfgParser != null && pcfgParser.getFallbackParses() > 0)
+			System.out.println("Parses stitched together after running out of budget: "
+					+ pcfgParser.getFallbackParses());
+		if (pcfgParser != null)
+			pcfgParser.shutdown();
 	}
 }
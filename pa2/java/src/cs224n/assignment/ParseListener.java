@@ -0,0 +1,12 @@
+package cs224n.assignment;
+
+import java.util.List;
+
+/**
+ * Receives the ParseMetrics of every sentence a PCFGParser parses.  Called
+ * on the thread that parsed the sentence, so a listener shared by several
+ * parsing threads must be thread-safe.
+ */
+public interface ParseListener {
+  public void sentenceParsed(List<String> sentence, ParseMetrics metrics);
+}
@@ -0,0 +1,123 @@
+package cs224n.assignment;
+
+/**
+ * Where the time and work of parsing one sentence went.  PCFGParser fills
+ * one in for each sentence only while a ParseListener is set.
+ *
+ * Phase times are summed over chart cells, so when cells are filled in
+ * parallel they add up the time of every thread and can exceed the total.
+ * A binary rule application is one (split, rule) combination scored against
+ * the chart; it is stored if it beats the parent's current score in the
+ * span.  Unaries are a single pass over the unary closure, so each unary
+ * application is one closure rule scored against one symbol of a span.
+ */
+public class ParseMetrics {
+
+  private final int length;
+  private long totalNanos;
+  private long preterminalNanos;
+  private long binaryNanos;
+  private long unaryNanos;
+  private long buildNanos;
+  private int cellsFilled;
+  private long binaryAttempts;
+  private long binaryStored;
+  private long unaryApplications;
+  private long chartEntries;
+  private boolean fallback;
+
+  ParseMetrics(int length) {
+    this.length = length;
+  }
+
+  /* Adds the work of filling chart cells; called once per sentence. */
+  synchronized void addCells(int cellsFilled, long preterminalNanos, long binaryNanos, long binaryAttempts,
+                             long binaryStored, long unaryNanos, long unaryApplications) {
+    this.preterminalNanos += preterminalNanos;
+    this.binaryNanos += binaryNanos;
+    this.binaryAttempts += binaryAttempts;
+    this.binaryStored += binaryStored;
+    this.unaryNanos += unaryNanos;
+    this.unaryApplications += unaryApplications;
+    this.cellsFilled += cellsFilled;
+  }
+
+  synchronized void setChartEntries(long chartEntries) {
+    this.chartEntries = Math.max(this.chartEntries, chartEntries);
+  }
+
+  synchronized void setFallback(boolean fallback) {
+    this.fallback = fallback;
+  }
+
+  synchronized void setBuildNanos(long buildNanos) {
+    this.buildNanos = buildNanos;
+  }
+
+  synchronized void setTotalNanos(long totalNanos) {
+    this.totalNanos = totalNanos;
+  }
+
+  /** Number of words in the sentence. */
+  public int getLength() {
+    return length;
+  }
+
+  /** Wall time of the whole getBestParse call. */
+  public synchronized long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /** Time scoring the tags of each word. */
+  public synchronized long getPreterminalNanos() {
+    return preterminalNanos;
+  }
+
+  /** Time combining pairs of smaller spans with binary rules. */
+  public synchronized long getBinaryNanos() {
+    return binaryNanos;
+  }
+
+  /** Time extending spans with the unary closure. */
+  public synchronized long getUnaryNanos() {
+    return unaryNanos;
+  }
+
+  /** Time following backpointers to the tree and unannotating it. */
+  public synchronized long getBuildNanos() {
+    return buildNanos;
+  }
+
+  /** Chart cells filled, counting both passes when coarse-to-fine falls back. */
+  public synchronized int getCellsFilled() {
+    return cellsFilled;
+  }
+
+  public synchronized long getBinaryAttempts() {
+    return binaryAttempts;
+  }
+
+  public synchronized long getBinaryStored() {
+    return binaryStored;
+  }
+
+  public synchronized long getUnaryApplications() {
+    return unaryApplications;
+  }
+
+  /**
+   * Largest number of (span, symbol) entries held by the filled chart.  With
+   * a beam, entries pruned from a cell are not counted.
+   */
+  public synchronized long getChartEntries() {
+    return chartEntries;
+  }
+
+  /**
+   * Whether the sentence ran out of its parse budget, so that its parse was
+   * stitched together from the spans filled in time.
+   */
+  public synchronized boolean isFallback() {
+    return fallback;
+  }
+}
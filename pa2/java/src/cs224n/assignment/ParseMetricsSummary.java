@@ -0,0 +1,86 @@
+package cs224n.assignment;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * A ParseListener that sums ParseMetrics by sentence length, in buckets of
+ * BUCKET_WIDTH words, and prints the per-sentence averages of each bucket.
+ */
+public class ParseMetricsSummary implements ParseListener {
+
+  /** Width in words of a length bucket, here and in the latency report. */
+  static final int BUCKET_WIDTH = 10;
+
+  /* Sums over the sentences of one length bucket. */
+  private static class Bucket {
+    int sentences;
+    long totalNanos;
+    long preterminalNanos;
+    long binaryNanos;
+    long unaryNanos;
+    long buildNanos;
+    long cellsFilled;
+    long binaryAttempts;
+    long binaryStored;
+    long unaryApplications;
+    long chartEntries;
+    int fallbacks;
+  }
+
+  private Bucket[] buckets = new Bucket[0];
+
+  public synchronized void sentenceParsed(List<String> sentence, ParseMetrics metrics) {
+    int b = Math.max(0, metrics.getLength() - 1) / BUCKET_WIDTH;
+    if (b >= buckets.length) {
+      Bucket[] grown = new Bucket[b + 1];
+      System.arraycopy(buckets, 0, grown, 0, buckets.length);
+      buckets = grown;
+    }
+    if (buckets[b] == null) buckets[b] = new Bucket();
+    Bucket bucket = buckets[b];
+    bucket.sentences++;
+    bucket.totalNanos += metrics.getTotalNanos();
+    bucket.preterminalNanos += metrics.getPreterminalNanos();
+    bucket.binaryNanos += metrics.getBinaryNanos();
+    bucket.unaryNanos += metrics.getUnaryNanos();
+    bucket.buildNanos += metrics.getBuildNanos();
+    bucket.cellsFilled += metrics.getCellsFilled();
+    bucket.binaryAttempts += metrics.getBinaryAttempts();
+    bucket.binaryStored += metrics.getBinaryStored();
+    bucket.unaryApplications += metrics.getUnaryApplications();
+    bucket.chartEntries += metrics.getChartEntries();
+    if (metrics.isFallback()) bucket.fallbacks++;
+  }
+
+  /**
+   * Forgets every sentence seen so far.
+   */
+  public synchronized void clear() {
+    buckets = new Bucket[0];
+  }
+
+  /**
+   * Prints one row per length bucket: the number of sentences, then the
+   * average per sentence of each time (in ms) and count, then the number
+   * of sentences that ran out of budget.
+   */
+  public synchronized void print(PrintStream out) {
+    out.println("Parse metrics by sentence length (averages per sentence, times in ms):");
+    out.printf("  %-7s %6s %9s %9s %9s %9s %9s %8s %12s %10s %10s %9s %8s%n", "length", "sents",
+        "total", "preterm", "binary", "unary", "build", "cells", "bin tried", "bin stored",
+        "unary", "entries", "fallback");
+    for (int b = 0; b < buckets.length; b++) {
+      Bucket bucket = buckets[b];
+      if (bucket == null) continue;
+      double n = bucket.sentences;
+      out.printf("  %-7s %6d %9.3f %9.3f %9.3f %9.3f %9.3f %8.1f %12.1f %10.1f %10.1f %9.1f %8d%n",
+          (b * BUCKET_WIDTH + 1) + "-" + (b + 1) * BUCKET_WIDTH, bucket.sentences,
+          bucket.totalNanos / n / 1e6, bucket.preterminalNanos / n / 1e6,
+          bucket.binaryNanos / n / 1e6, bucket.unaryNanos / n / 1e6,
+          bucket.buildNanos / n / 1e6, bucket.cellsFilled / n, bucket.binaryAttempts / n,
+          bucket.binaryStored / n, bucket.unaryApplications / n, bucket.chartEntries / n,
+          bucket.fallbacks);
+    }
+  }
+}
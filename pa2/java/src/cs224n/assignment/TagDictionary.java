@@ -0,0 +1,106 @@
+package cs224n.assignment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import cs224n.util.Index;
+
+/**
+ * Preterminal scores of a Lexicon, compiled against a symbol index.  For
+ * each word it returns only the candidate tags (see
+ * Lexicon.getCandidateTags) as parallel arrays of symbol ids and scores,
+ * instead of scoring every tag in the lexicon.
+ *
+ * Every known word, and the shared row used by every unknown word, is
+ * scored once up front, so a lookup is a single hash probe and allocates
+ * nothing.  Rare words' rows are as long as the open-class set, so they
+ * take most of the dictionary's memory.  Lookups never modify the
+ * dictionary, so it may be shared by parsing threads.
+ */
+public class TagDictionary {
+
+  /**
+   * Candidate tags of one word and their scores, as parallel arrays.  Log
+   * scores are taken once, when the taggings are built.
+   */
+  public static class Taggings {
+    private final int[] tags;
+    private final double[] scores;
+    private final double[] logScores;
+
+    public int[] getTags() {
+      return tags;
+    }
+
+    public double[] getScores() {
+      return scores;
+    }
+
+    public double[] getLogScores() {
+      return logScores;
+    }
+
+    public int size() {
+      return tags.length;
+    }
+
+    Taggings(int[] tags, double[] scores) {
+      this.tags = tags;
+      this.scores = scores;
+      this.logScores = new double[scores.length];
+      for (int t = 0; t < scores.length; t++) {
+        logScores[t] = Math.log(scores[t]);
+      }
+    }
+  }
+
+  private final Lexicon lexicon;
+  private final Index<String> symbols;
+  private final Map<String, Taggings> knownWords = new HashMap<String, Taggings>();
+  private final Taggings unknownWord;
+
+  /**
+   * @param lexicon trained lexicon
+   * @param symbols index holding every tag of the lexicon
+   */
+  public TagDictionary(Lexicon lexicon, Index<String> symbols) {
+    this.lexicon = lexicon;
+    this.symbols = symbols;
+    for (String word : lexicon.getKnownWords()) {
+      knownWords.put(word, score(word, lexicon.getCandidateTags(word)));
+    }
+    unknownWord = score(null, lexicon.getOpenClassTags());
+  }
+
+  /**
+   * Returns the candidate tags of a word with their nonzero scores.  Callers
+   * must not modify the returned arrays.
+   */
+  public Taggings getTaggings(String word) {
+    Taggings taggings = knownWords.get(word);
+    return taggings != null ? taggings : unknownWord;
+  }
+
+  /* Scores candidate tags of a word, or of every unknown word if word is null. */
+  private Taggings score(String word, Set<String> candidates) {
+    int[] tags = new int[candidates.size()];
+    double[] scores = new double[candidates.size()];
+    int n = 0;
+    for (String tag : candidates) {
+      double score = word == null ? lexicon.scoreUnknownTagging(tag) : lexicon.scoreTagging(word, tag);
+      if (score == 0) continue;
+      tags[n] = symbols.indexOf(tag);
+      scores[n] = score;
+      n++;
+    }
+    if (n < tags.length) {
+      int[] trimmedTags = new int[n];
+      double[] trimmedScores = new double[n];
+      System.arraycopy(tags, 0, trimmedTags, 0, n);
+      System.arraycopy(scores, 0, trimmedScores, 0, n);
+      return new Taggings(trimmedTags, trimmedScores);
+    }
+    return new Taggings(tags, scores);
+  }
+}
@@ -21,7 +21,7 @@ public class TreeAnnotations {
    * @param unAnnotatedTree
    * @param v vertical markovization order (default is 1)
    * @param h horizontal markovization order (default is -1)
-   * @return
+   * @return a new tree; unAnnotatedTree is left unchanged
    */
 	public static Tree<String> annotateTree(Tree<String> unAnnotatedTree, int v, int h) {
 
@@ -125,11 +125,12 @@ public class TreeAnnotations {
     for (Tree<String> child : tree.getChildren()) {
       children.add(secondVerticalMarkovization(child, tree.getLabel()));
     }
+    String label = tree.getLabel();
     if (parentTag != null) {
-      tree.setLabel(tree.getLabel() + "^" + parentTag);
+      label = label + "^" + parentTag;
     }
 
-    return new Tree<String>(tree.getLabel(), children);
+    return new Tree<String>(label, children);
   }
 
   /**
@@ -145,14 +146,15 @@ public class TreeAnnotations {
     for (Tree<String> child : tree.getChildren()) {
       children.add(thirdVerticalMarkovization(child, tree.getLabel(), parentTag));
     }
+    String label = tree.getLabel();
     if (parentTag != null) {
-      tree.setLabel(tree.getLabel() + "^" + parentTag);
+      label = label + "^" + parentTag;
     }
     if (grandParentTag != null) {
-      tree.setLabel(tree.getLabel() + "^" + grandParentTag);
+      label = label + "^" + grandParentTag;
     }
 
-    return new Tree<String>(tree.getLabel(), children);
+    return new Tree<String>(label, children);
   }
 
 
@@ -188,6 +190,39 @@ public class TreeAnnotations {
 		return new Tree<String>(intermediateLabel, children);
 	} 
 
+	/**
+	 * Coarse projection of an annotated label: vertical markovization marks
+	 * (^parent) are stripped, and intermediate binarization labels keep only
+	 * the symbol they were built from, so @NP^S->_DT^NP_JJ^NP becomes @NP.
+	 * @param label annotated label
+	 * @return the coarse label
+	 */
+	public static String projectLabel(String label) {
+		if (label.startsWith("@")) {
+			int arrow = label.indexOf("->");
+			if (arrow > 0)
+				label = label.substring(0, arrow);
+		}
+		int caretIndex = label.indexOf('^');
+		if (caretIndex > 0)
+			label = label.substring(0, caretIndex);
+		return label;
+	}
+
+	/**
+	 * Projects every non-terminal label of an annotated tree with projectLabel.
+	 * Words are left alone.
+	 */
+	public static Tree<String> projectTree(Tree<String> annotatedTree) {
+		if (annotatedTree.isLeaf())
+			return new Tree<String>(annotatedTree.getLabel());
+		List<Tree<String>> children = new ArrayList<Tree<String>>();
+		for (Tree<String> child : annotatedTree.getChildren()) {
+			children.add(projectTree(child));
+		}
+		return new Tree<String>(projectLabel(annotatedTree.getLabel()), children);
+	}
+
 	public static Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
 
 		// Remove intermediate nodes (labels beginning with "@"
@@ -0,0 +1,298 @@
+package cs224n.assignment;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import cs224n.assignment.Grammar.BinaryRule;
+import cs224n.assignment.Grammar.UnaryRule;
+import cs224n.ling.Tree;
+import cs224n.util.CommandLineUtils;
+import cs224n.util.Counter;
+
+/**
+ * Samples trees top-down from a PCFG and lexicon trained on a treebank, to
+ * build synthetic corpora of any size for load testing.  The grammar is
+ * trained on trees binarized without markovization (v = 1, h = -1), so
+ * sampling it reproduces the relative frequencies of the original n-ary
+ * rules, and sampled trees are unannotated back to ordinary treebank
+ * trees.  Sampling is deterministic for a given seed and training set.
+ *
+ * Sentence lengths follow a LengthDistribution: a length range is drawn
+ * first, then trees are sampled until one falls in it, abandoning any tree
+ * as soon as it grows past the range.  A range the grammar does not
+ * produce within MAX_ATTEMPTS trees is given up on and another drawn.
+ *
+ * The main method writes the trees as .mrg files that PennTreebankReader
+ * and PCFGParserTester can read.  Options:
+ *
+ *   -path, -data     training treebank, as for PCFGParserTester
+ *   -out             directory to write wsj_NNNN.mrg files to
+ *   -trees           number of trees to write
+ *   -treesPerFile    trees in each file
+ *   -firstFile       number of the first file
+ *   -seed            random seed
+ *   -lengths         length distribution, as "min-max:weight,...", e.g.
+ *                    "1-10:1,11-40:3,41-80:1"; empty for the training
+ *                    trees' own distribution, in ranges of ten words
+ */
+public class TreebankGenerator {
+
+  /* Attempts at drawing a tree in a length range before giving up on it. */
+  private static final int MAX_ATTEMPTS = 100000;
+
+  /* Length ranges drawn from a distribution before giving up on all of them. */
+  private static final int MAX_REDRAWS = 100;
+
+  /* Width in words of the length ranges of an empirical distribution. */
+  private static final int LENGTH_BUCKET_WIDTH = 10;
+
+  /**
+   * Sentence length ranges with relative weights.
+   */
+  public static class LengthDistribution {
+    private final List<int[]> ranges = new ArrayList<int[]>();
+    private final List<Double> weights = new ArrayList<Double>();
+    private double totalWeight = 0.0;
+
+    public void add(int minLength, int maxLength, double weight) {
+      if (minLength < 1 || maxLength < minLength || weight < 0)
+        throw new IllegalArgumentException("Bad length range " + minLength + "-" + maxLength + ":" + weight);
+      ranges.add(new int[] {minLength, maxLength});
+      weights.add(weight);
+      totalWeight += weight;
+    }
+
+    /**
+     * Parses "min-max:weight,...", where a bare "n" stands for "n-n:1".
+     */
+    public static LengthDistribution parse(String spec) {
+      LengthDistribution distribution = new LengthDistribution();
+      for (String range : spec.split(",")) {
+        String[] rangeAndWeight = range.trim().split(":");
+        String[] bounds = rangeAndWeight[0].split("-");
+        int min = Integer.parseInt(bounds[0].trim());
+        int max = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : min;
+        double weight = rangeAndWeight.length > 1 ? Double.parseDouble(rangeAndWeight[1].trim()) : 1.0;
+        distribution.add(min, max, weight);
+      }
+      return distribution;
+    }
+
+    /**
+     * The empirical distribution of sentence lengths in some trees, in
+     * ranges of LENGTH_BUCKET_WIDTH words, so that a length seen only once
+     * or twice does not have to be hit exactly.
+     */
+    public static LengthDistribution of(List<Tree<String>> trees) {
+      Counter<Integer> buckets = new Counter<Integer>();
+      for (Tree<String> tree : trees) {
+        int length = tree.getYield().size();
+        if (length > 0) buckets.incrementCount((length - 1) / LENGTH_BUCKET_WIDTH, 1.0);
+      }
+      List<Integer> sorted = new ArrayList<Integer>(buckets.keySet());
+      Collections.sort(sorted);
+      LengthDistribution distribution = new LengthDistribution();
+      for (int bucket : sorted) {
+        distribution.add(bucket * LENGTH_BUCKET_WIDTH + 1, (bucket + 1) * LENGTH_BUCKET_WIDTH,
+            buckets.getCount(bucket));
+      }
+      return distribution;
+    }
+
+    int[] sample(Random random) {
+      double r = random.nextDouble() * totalWeight;
+      for (int i = 0; i < ranges.size(); i++) {
+        r -= weights.get(i);
+        if (r < 0) return ranges.get(i);
+      }
+      return ranges.get(ranges.size() - 1);
+    }
+  }
+
+  /* The ways to rewrite one symbol: child sequences and cumulative scores. */
+  private static class Choices {
+    final List<String[]> outcomes = new ArrayList<String[]>();
+    double[] cumulative = new double[4];
+    double total = 0.0;
+
+    void add(String[] outcome, double score) {
+      if (outcomes.size() == cumulative.length) {
+        double[] grown = new double[2 * cumulative.length];
+        System.arraycopy(cumulative, 0, grown, 0, cumulative.length);
+        cumulative = grown;
+      }
+      total += score;
+      cumulative[outcomes.size()] = total;
+      outcomes.add(outcome);
+    }
+
+    String[] sample(Random random) {
+      double r = random.nextDouble() * total;
+      int lo = 0, hi = outcomes.size() - 1;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (cumulative[mid] > r) hi = mid;
+        else lo = mid + 1;
+      }
+      return outcomes.get(lo);
+    }
+  }
+
+  private final Map<String, Choices> rules = new HashMap<String, Choices>();
+  private final Map<String, Choices> words = new HashMap<String, Choices>();
+  private final Random random;
+
+  /**
+   * Trains a sampling grammar and lexicon on trees, which are left unchanged.
+   */
+  public TreebankGenerator(List<Tree<String>> trainTrees, long seed) {
+    List<Tree<String>> binarized = new ArrayList<Tree<String>>(trainTrees.size());
+    for (Tree<String> tree : trainTrees) {
+      binarized.add(TreeAnnotations.annotateTree(tree, 1, -1));
+    }
+    Grammar grammar = new Grammar(binarized);
+    Lexicon lexicon = new Lexicon(binarized);
+    for (BinaryRule rule : grammar.getBinaryRules()) {
+      choicesFor(rules, rule.getParent()).add(
+          new String[] {rule.getLeftChild(), rule.getRightChild()}, rule.getScore());
+    }
+    for (UnaryRule rule : grammar.getUnaryRules()) {
+      choicesFor(rules, rule.getParent()).add(new String[] {rule.getChild()}, rule.getScore());
+    }
+    for (String word : lexicon.wordToTagCounters.keySet()) {
+      Counter<String> tags = lexicon.wordToTagCounters.getCounter(word);
+      for (String tag : tags.keySet()) {
+        choicesFor(words, tag).add(new String[] {word}, tags.getCount(tag));
+      }
+    }
+    random = new Random(seed);
+  }
+
+  private static Choices choicesFor(Map<String, Choices> map, String symbol) {
+    Choices choices = map.get(symbol);
+    if (choices == null) {
+      choices = new Choices();
+      map.put(symbol, choices);
+    }
+    return choices;
+  }
+
+  /**
+   * Samples a tree whose sentence length is in [minLength, maxLength].
+   * @throws IllegalStateException if no such tree turns up after many attempts
+   */
+  public Tree<String> sample(int minLength, int maxLength) {
+    Tree<String> tree = trySample(minLength, maxLength);
+    if (tree == null)
+      throw new IllegalStateException("No tree of length " + minLength + "-" + maxLength
+          + " in " + MAX_ATTEMPTS + " attempts");
+    return tree;
+  }
+
+  /**
+   * Samples a tree with a length drawn from a distribution.  A range the
+   * grammar rarely produces is given up on, and a new one drawn.
+   * @throws IllegalStateException if no drawn range yields a tree
+   */
+  public Tree<String> sample(LengthDistribution lengths) {
+    for (int redraw = 0; redraw < MAX_REDRAWS; redraw++) {
+      int[] range = lengths.sample(random);
+      Tree<String> tree = trySample(range[0], range[1]);
+      if (tree != null) return tree;
+    }
+    throw new IllegalStateException("No tree in " + MAX_REDRAWS + " length ranges drawn");
+  }
+
+  /* sample(minLength, maxLength), returning null if no tree turns up. */
+  private Tree<String> trySample(int minLength, int maxLength) {
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      int[] length = new int[1];
+      Tree<String> tree = expand("ROOT", length, maxLength);
+      if (tree != null && length[0] >= minLength) {
+        return TreeAnnotations.unAnnotateTree(tree);
+      }
+    }
+    return null;
+  }
+
+  /* Expands a symbol, counting words in length[0]; null once the sentence
+   * passes maxLength. */
+  private Tree<String> expand(String symbol, int[] length, int maxLength) {
+    Choices choices = rules.get(symbol);
+    if (choices == null) {
+      Choices tagWords = words.get(symbol);
+      if (tagWords == null)
+        throw new IllegalStateException("Symbol " + symbol + " has no rules or words");
+      if (++length[0] > maxLength) return null;
+      Tree<String> word = new Tree<String>(tagWords.sample(random)[0]);
+      return new Tree<String>(symbol, Collections.singletonList(word));
+    }
+    String[] outcome = choices.sample(random);
+    List<Tree<String>> children = new ArrayList<Tree<String>>(outcome.length);
+    for (String child : outcome) {
+      Tree<String> subtree = expand(child, length, maxLength);
+      if (subtree == null) return null;
+      children.add(subtree);
+    }
+    return new Tree<String>(symbol, children);
+  }
+
+  /**
+   * Writes trees in Penn Treebank bracketing, with an unlabeled root
+   * bracket as in the .mrg files.
+   */
+  public static void writeTree(Tree<String> tree, Writer out) throws IOException {
+    StringBuilder sb = new StringBuilder("(");
+    for (Tree<String> child : tree.getChildren()) {
+      sb.append(' ');
+      child.toStringBuilder(sb);
+    }
+    sb.append(" )\n\n");
+    out.write(sb.toString());
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put("-out",          "synthetic");
+    options.put("-trees",        "1000");
+    options.put("-treesPerFile", "100");
+    options.put("-firstFile",    "1");
+    options.put("-seed",         "1");
+    options.put("-lengths",      "");
+    options.putAll(CommandLineUtils.simpleCommandLineParser(args));
+
+    List<Tree<String>> trainTrees = PCFGParserTester.loadTrainTest(options).trainTrees;
+
+    TreebankGenerator generator = new TreebankGenerator(trainTrees, Long.parseLong(options.get("-seed")));
+    LengthDistribution lengths = options.get("-lengths").length() > 0
+      ? LengthDistribution.parse(options.get("-lengths"))
+      : LengthDistribution.of(trainTrees);
+
+    File outDir = new File(options.get("-out"));
+    if (!outDir.isDirectory() && !outDir.mkdirs())
+      throw new IOException("Cannot create " + outDir);
+    int numTrees = Integer.parseInt(options.get("-trees"));
+    int treesPerFile = Integer.parseInt(options.get("-treesPerFile"));
+    int fileNumber = Integer.parseInt(options.get("-firstFile"));
+    for (int written = 0; written < numTrees; fileNumber++) {
+      File file = new File(outDir, String.format("wsj_%04d.mrg", fileNumber));
+      Writer out = new FileWriter(file);
+      try {
+        for (int i = 0; i < treesPerFile && written < numTrees; i++, written++) {
+          writeTree(generator.sample(lengths), out);
+        }
+      } finally {
+        out.close();
+      }
+    }
+    System.out.println("Wrote " + numTrees + " trees to " + outDir);
+  }
+}
@@ -36,7 +36,7 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
     /* evaluates precision and recall by calling makeObjects() to make a
      * set of structures for guess Tree and gold Tree, and compares them
-     * with each other.  */
+     * with each other.  A null PrintWriter skips the per-tree display. */
     public void evaluate(Tree<L> guess, Tree<L> gold, PrintWriter pw) {
       Set<Object> guessedSet = makeObjects(guess);
       Set<Object> goldSet = makeObjects(gold);
@@ -44,21 +44,26 @@ public class EnglishPennTreebankParseEvaluator<L> {
       correctSet.addAll(goldSet);
       correctSet.retainAll(guessedSet);
 
-      correctEvents += correctSet.size();
-      guessedEvents += guessedSet.size();
-      goldEvents += goldSet.size();
-
       int currentExact = 0;
       if (correctSet.size() == guessedSet.size() &&
           correctSet.size() == goldSet.size()) {
-        exact++;
         currentExact = 1;
       }
-      total++;
 
-      displayPRF(str + " [Current] ", 
-                 correctSet.size(), guessedSet.size(), goldSet.size(), 
-                 currentExact, 1, pw);
+      // totals may be aggregated from several parsing threads
+      synchronized (this) {
+        correctEvents += correctSet.size();
+        guessedEvents += guessedSet.size();
+        goldEvents += goldSet.size();
+        exact += currentExact;
+        total++;
+      }
+
+      if (pw != null) {
+        displayPRF(str + " [Current] ", 
+                   correctSet.size(), guessedSet.size(), goldSet.size(), 
+                   currentExact, 1, pw);
+      }
 
     }
 
@@ -87,11 +92,20 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
     }
 
+    /* Returns the F1 over everything evaluated so far. */
+    public synchronized double getF1() {
+      double precision = (guessedEvents > 0 ? correctEvents / (double) guessedEvents : 1.0);
+      double recall    = (goldEvents    > 0 ? correctEvents / (double) goldEvents    : 1.0);
+      return ((precision > 0.0 && recall > 0.0) ? 
+              2.0 / (1.0 / precision + 1.0 / recall) :
+              0.0);
+    }
+
     public void display(boolean verbose) {
       display(verbose, new PrintWriter(System.out, true));
     }
 
-    public void display(boolean verbose, PrintWriter pw) {
+    public synchronized void display(boolean verbose, PrintWriter pw) {
       displayPRF(str+" [Average] ", correctEvents, guessedEvents, goldEvents, exact, total, pw);
     }
   }
@@ -165,7 +179,9 @@ public class EnglishPennTreebankParseEvaluator<L> {
     Set<Object> makeObjects(Tree<L> tree) {
       Tree<L> noLeafTree = stripLeaves(tree);
       Set<Object> set = new HashSet<Object>();
-      addConstituents(noLeafTree, set, 0);
+      // a failed parse is a bare leaf, with no constituents at all
+      if (noLeafTree != null)
+        addConstituents(noLeafTree, set, 0);
       return set;
     }
 
@@ -0,0 +1,256 @@
+package cs224n.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+
+/**
+ * Reads Penn Treebank trees from a byte array, producing the same trees as
+ * Trees.PennTreeReader.  A whole file is read with one bulk channel read and
+ * tokenized in place, instead of one char at a time through a
+ * PushbackReader.  Labels and words are decoded as UTF-8 and canonicalized
+ * through a SymbolTable rather than String.intern(), so repeated tokens share
+ * one String without touching the JVM's intern pool.
+ */
+public class PennTreeByteReader implements Iterator<Tree<String>> {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Canonical Strings for byte sequences, looked up without building a
+   * String first.  Open addressing over a power-of-two table.  Not
+   * thread-safe; give each thread its own table.
+   */
+  public static class SymbolTable {
+    private byte[][] keys = new byte[1024][];
+    private String[] values = new String[1024];
+    private int size;
+
+    public String get(byte[] buf, int start, int length) {
+      int hash = hash(buf, start, length);
+      int mask = keys.length - 1;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        byte[] key = keys[slot];
+        if (key == null) {
+          key = new byte[length];
+          System.arraycopy(buf, start, key, 0, length);
+          String value = new String(key, UTF8);
+          keys[slot] = key;
+          values[slot] = value;
+          if (++size * 2 > keys.length) grow();
+          return value;
+        }
+        if (matches(key, buf, start, length)) return values[slot];
+      }
+    }
+
+    public int size() {
+      return size;
+    }
+
+    private static int hash(byte[] buf, int start, int length) {
+      int h = 0;
+      for (int i = start; i < start + length; i++) {
+        h = 31 * h + buf[i];
+      }
+      return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(byte[] key, byte[] buf, int start, int length) {
+      if (key.length != length) return false;
+      for (int i = 0; i < length; i++) {
+        if (key[i] != buf[start + i]) return false;
+      }
+      return true;
+    }
+
+    private void grow() {
+      byte[][] oldKeys = keys;
+      String[] oldValues = values;
+      keys = new byte[2 * oldKeys.length][];
+      values = new String[2 * oldValues.length];
+      int mask = keys.length - 1;
+      for (int k = 0; k < oldKeys.length; k++) {
+        if (oldKeys[k] == null) continue;
+        int slot = hash(oldKeys[k], 0, oldKeys[k].length) & mask;
+        while (keys[slot] != null) slot = (slot + 1) & mask;
+        keys[slot] = oldKeys[k];
+        values[slot] = oldValues[k];
+      }
+    }
+  }
+
+  private final byte[] buf;
+  private final int limit;
+  private final SymbolTable symbols;
+  private int pos;
+  private Tree<String> nextTree;
+
+  /**
+   * Read every tree in a file.
+   * @param symbols table shared by the trees read, and by any other reader on this thread
+   */
+  public PennTreeByteReader(File file, SymbolTable symbols) throws IOException {
+    this(readFully(file), symbols);
+  }
+
+  public PennTreeByteReader(byte[] buf, SymbolTable symbols) {
+    this.buf = buf;
+    this.limit = buf.length;
+    this.symbols = symbols;
+    nextTree = readRootTree();
+  }
+
+  /**
+   * Returns the contents of a file, read with a single channel read.
+   */
+  public static byte[] readFully(File file) throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File too large to read into memory: " + file);
+      }
+      byte[] bytes = new byte[(int) size];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      }
+      return bytes;
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Returns the byte offset at which each tree in buf starts, followed by
+   * the offset just past the last tree, without building any trees.  Trees
+   * are found by bracket depth alone, which matches the tokenizer, since
+   * tokens never contain parentheses.  Like the reader, the scan stops at
+   * the first top-level byte that is neither whitespace nor '('.
+   */
+  public static int[] findTreeOffsets(byte[] buf) {
+    int[] offsets = new int[16];
+    int count = 0;
+    int pos = 0;
+    while (true) {
+      while (pos < buf.length && isWhiteSpace(buf[pos])) pos++;
+      if (count == offsets.length) offsets = Arrays.copyOf(offsets, 2 * count);
+      offsets[count++] = pos;
+      if (pos >= buf.length || buf[pos] != '(') break;
+      int depth = 0;
+      do {
+        byte b = buf[pos++];
+        if (b == '(') depth++;
+        else if (b == ')') depth--;
+      } while (depth > 0 && pos < buf.length);
+      if (depth > 0)
+        throw new RuntimeException("Format error reading tree.");
+    }
+    return Arrays.copyOf(offsets, count);
+  }
+
+  /**
+   * Reads length bytes of a file starting at offset, with one positional channel read.
+   */
+  public static byte[] readRange(File file, long offset, int length) throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      byte[] bytes = new byte[length];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0)
+          throw new IOException("Unexpected end of file: " + file);
+      }
+      return bytes;
+    } finally {
+      stream.close();
+    }
+  }
+
+  public boolean hasNext() {
+    return nextTree != null;
+  }
+
+  public Tree<String> next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    Tree<String> tree = nextTree;
+    nextTree = readRootTree();
+    return tree;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private Tree<String> readRootTree() {
+    skipWhiteSpace();
+    if (pos >= limit || buf[pos] != '(')
+      return null;
+    return readTree(true);
+  }
+
+  private Tree<String> readTree(boolean isRoot) {
+    expect('(');
+    skipWhiteSpace();
+    String label = readText();
+    if (label.length() == 0 && isRoot)
+      label = Trees.TreeReader.ROOT_LABEL;
+    List<Tree<String>> children;
+    skipWhiteSpace();
+    if (pos < limit && buf[pos] != '(') {
+      children = Collections.singletonList(new Tree<String>(readText()));
+    } else {
+      children = new ArrayList<Tree<String>>();
+      while (true) {
+        skipWhiteSpace();
+        if (pos >= limit)
+          throw new RuntimeException("Format error reading tree.");
+        if (buf[pos] == ')') break;
+        children.add(readTree(false));
+      }
+    }
+    expect(')');
+    return new Tree<String>(label, children);
+  }
+
+  private void expect(char paren) {
+    skipWhiteSpace();
+    if (pos >= limit || buf[pos] != paren)
+      throw new RuntimeException("Format error reading tree.");
+    pos++;
+  }
+
+  private String readText() {
+    int start = pos;
+    while (pos < limit) {
+      byte b = buf[pos];
+      if (isWhiteSpace(b) || b == '(' || b == ')') break;
+      pos++;
+    }
+    if (pos == start) return "";
+    return symbols.get(buf, start, pos - start);
+  }
+
+  private void skipWhiteSpace() {
+    while (pos < limit && isWhiteSpace(buf[pos])) pos++;
+  }
+
+  private static boolean isWhiteSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\f' || b == '\r' || b == '\n';
+  }
+}
@@ -5,6 +5,11 @@ import cs224n.ling.Trees;
 import cs224n.util.ConcatenationIterator;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.io.*;
 
 /**
@@ -12,13 +17,24 @@ import java.io.*;
  */
 public class PennTreebankReader {
 
-  static class TreeCollection extends AbstractCollection<Tree<String>> {
+  /**
+   * The trees of a list of files, read lazily.  Iteration streams through
+   * the files.  The first call to size() or get() scans the files once,
+   * without parsing them, for the byte offset of every tree.  After that
+   * size() is constant time and get(k) reads and parses only the k-th tree.
+   */
+  public static class TreeCollection extends AbstractList<Tree<String>> {
 
     List<File> files;
+    // treeOffsets[f] holds the start of each tree in file f, then the end of its last tree;
+    // firstTree[f] is the position of file f's first tree in the collection
+    int[][] treeOffsets;
+    int[] firstTree;
 
     static class TreeIteratorIterator implements Iterator<Iterator<Tree<String>>> {
       Iterator<File> fileIterator;
       Iterator<Tree<String>> nextTreeIterator;
+      PennTreeByteReader.SymbolTable symbols = new PennTreeByteReader.SymbolTable();
 
       public boolean hasNext() {
         return nextTreeIterator != null;
@@ -40,8 +56,10 @@ public class PennTreebankReader {
           try {
             File file = fileIterator.next();
             System.out.println(file.getName());
-            nextTreeIterator = new Trees.PennTreeReader(new BufferedReader(new FileReader(file)));
+            nextTreeIterator = new PennTreeByteReader(file, symbols);
           } catch (FileNotFoundException e) {
+          } catch (IOException e) {
+            throw new RuntimeException(e);
           }
         }
       }
@@ -57,13 +75,51 @@ public class PennTreebankReader {
     }
 
     public int size() {
-      int size = 0;
-      Iterator i = iterator();
-      while (i.hasNext()) {
-        size++;
-        i.next();
+      buildIndex();
+      return firstTree[files.size()];
+    }
+
+    /**
+     * Returns the k-th tree of the collection, in iteration order.
+     */
+    public Tree<String> get(int k) {
+      buildIndex();
+      if (k < 0 || k >= firstTree[files.size()])
+        throw new IndexOutOfBoundsException("Tree " + k + " of " + firstTree[files.size()]);
+      // last file whose first tree is at or before k
+      int f = Arrays.binarySearch(firstTree, k);
+      if (f < 0) {
+        f = -f - 2;
+      } else {
+        while (f + 1 < files.size() && firstTree[f + 1] == k) f++;
+      }
+      int t = k - firstTree[f];
+      int start = treeOffsets[f][t];
+      int end = treeOffsets[f][t + 1];
+      try {
+        byte[] bytes = PennTreeByteReader.readRange(files.get(f), start, end - start);
+        return new PennTreeByteReader(bytes, new PennTreeByteReader.SymbolTable()).next();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
       }
-      return size;
+    }
+
+    private synchronized void buildIndex() {
+      if (firstTree != null) return;
+      int[][] offsets = new int[files.size()][];
+      int[] first = new int[files.size() + 1];
+      for (int f = 0; f < files.size(); f++) {
+        try {
+          offsets[f] = PennTreeByteReader.findTreeOffsets(PennTreeByteReader.readFully(files.get(f)));
+        } catch (FileNotFoundException e) {
+          offsets[f] = new int[] {0};
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        first[f + 1] = first[f] + offsets[f].length - 1;
+      }
+      treeOffsets = offsets;
+      firstTree = first;
     }
 
     private List<File> getFilesUnder(String path, FileFilter fileFilter) {
@@ -106,19 +162,79 @@ public class PennTreebankReader {
 
   }
 
-//   public static Collection<Tree<String>> readTrees(String path) {
+//   public static TreeCollection readTrees(String path) {
 //     return readTrees(path, -1, Integer.MAX_VALUE);
 //   }
 
-  public static Collection<Tree<String>> readTrees(String path, int lowFileNum, int highFileNumber) {
+  public static TreeCollection readTrees(String path, int lowFileNum, int highFileNumber) {
     return new TreeCollection(path, lowFileNum, highFileNumber);
   }
 
 
-  public static Collection<Tree<String>> readTrees(String path) {
+  public static TreeCollection readTrees(String path) {
     return new TreeCollection(path);
   }
 
+  /**
+   * Reads the trees of the selected .mrg files on a pool of worker threads,
+   * one file per task, and applies a transformer to each tree in the worker
+   * that read it.  The result holds the trees in the same order as
+   * readTrees(path, lowFileNum, highFileNumber), whatever order the files
+   * finish in.  File names are not printed.
+   * @param transformer applied to every tree, or null for none; shared by all workers
+   * @param numThreads number of worker threads; zero or less uses one per available processor
+   */
+  public static List<Tree<String>> readTreesInParallel(String path, int lowFileNum, int highFileNumber,
+                                                       final Trees.TreeTransformer<String> transformer,
+                                                       int numThreads) {
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    // each worker canonicalizes its tokens through its own table
+    final ThreadLocal<PennTreeByteReader.SymbolTable> symbolTables = new ThreadLocal<PennTreeByteReader.SymbolTable>() {
+      protected PennTreeByteReader.SymbolTable initialValue() {
+        return new PennTreeByteReader.SymbolTable();
+      }
+    };
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<List<Tree<String>>>> futures = new ArrayList<Future<List<Tree<String>>>>();
+      for (final File file : getFiles(path, lowFileNum, highFileNumber)) {
+        futures.add(pool.submit(new Callable<List<Tree<String>>>() {
+          public List<Tree<String>> call() throws IOException {
+            List<Tree<String>> trees = new ArrayList<Tree<String>>();
+            PennTreeByteReader reader = new PennTreeByteReader(file, symbolTables.get());
+            while (reader.hasNext()) {
+              Tree<String> tree = reader.next();
+              trees.add(transformer == null ? tree : transformer.transformTree(tree));
+            }
+            return trees;
+          }
+        }));
+      }
+      List<Tree<String>> trees = new ArrayList<Tree<String>>();
+      for (Future<List<Tree<String>>> future : futures) {
+        trees.addAll(future.get());
+      }
+      return trees;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Returns the .mrg files under path whose numbers lie in [lowFileNum, highFileNumber],
+   * in the order readTrees(path, lowFileNum, highFileNumber) reads them.
+   */
+  public static List<File> getFiles(String path, int lowFileNum, int highFileNumber) {
+    return new TreeCollection(path, lowFileNum, highFileNumber).files;
+  }
+
   public static void main(String[] args) {
     Collection<Tree<String>> trees = readTrees(args[0]);
     for (Tree<String> tree : trees) {
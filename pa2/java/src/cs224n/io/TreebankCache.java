@@ -0,0 +1,237 @@
+package cs224n.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+
+/**
+ * On-disk cache of normalized treebank sections.  Each cache file holds the
+ * trees of one file range under one normalizer, encoded as a symbol table
+ * followed by every tree in pre-order as (label id, arity) pairs, all as
+ * variable-length integers.  The header records the key (directory, range,
+ * normalizer class) and the length and modification time of every source
+ * file, so the cache is rebuilt whenever a file is added, removed or changed.
+ *
+ * File layout:
+ *
+ *   magic, version, key, number of source files,
+ *   per source file: path, length, modification time
+ *   number of symbols, symbols (UTF-8)
+ *   number of trees, per tree: pre-order (label id + 1, arity), with a
+ *   label id + 1 of 0 standing for a tree the normalizer mapped to null
+ */
+public class TreebankCache {
+
+  static final int MAGIC = 0x54524545; // "TREE"
+  static final int VERSION = 1;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Returns the normalized trees of a file range, from the cache if it is
+   * current, and otherwise by reading the files in parallel and rewriting
+   * the cache.  Trees come back in the same order as
+   * PennTreebankReader.readTreesInParallel returns them.
+   * @param cacheDir directory holding cache files, created if missing
+   * @param normalizer applied to every tree, or null for none
+   * @param numThreads worker threads for reading on a cache miss
+   */
+  public static List<Tree<String>> readTrees(String path, int lowFileNum, int highFileNumber,
+                                             Trees.TreeTransformer<String> normalizer,
+                                             File cacheDir, int numThreads) {
+    List<File> files = PennTreebankReader.getFiles(path, lowFileNum, highFileNumber);
+    String key = new File(path).getAbsolutePath() + "|" + lowFileNum + "-" + highFileNumber + "|"
+      + (normalizer == null ? "none" : normalizer.getClass().getName());
+    File cacheFile = new File(cacheDir, "treebank-" + Integer.toHexString(key.hashCode()) + ".bin");
+    byte[] header = encodeHeader(key, files);
+
+    if (cacheFile.isFile()) {
+      try {
+        List<Tree<String>> trees = decode(PennTreeByteReader.readFully(cacheFile), header);
+        if (trees != null) return trees;
+      } catch (IOException e) {
+        // unreadable cache; rebuild it below
+      } catch (RuntimeException e) {
+        // corrupt cache; rebuild it below
+      }
+    }
+
+    List<Tree<String>> trees = PennTreebankReader.readTreesInParallel(path, lowFileNum, highFileNumber,
+        normalizer, numThreads);
+    try {
+      write(cacheFile, header, trees);
+    } catch (IOException e) {
+      System.err.println("Could not write treebank cache " + cacheFile + ": " + e.getMessage());
+    }
+    return trees;
+  }
+
+  private static byte[] encodeHeader(String key, List<File> files) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, key);
+      writeVarInt(out, files.size());
+      for (File file : files) {
+        writeString(out, file.getPath());
+        out.writeLong(file.length());
+        out.writeLong(file.lastModified());
+      }
+      out.close();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void write(File cacheFile, byte[] header, List<Tree<String>> trees) throws IOException {
+    File dir = cacheFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("cannot create directory " + dir);
+    }
+    Map<String, Integer> symbolIds = new HashMap<String, Integer>();
+    List<String> symbols = new ArrayList<String>();
+    for (Tree<String> tree : trees) {
+      if (tree != null) collectSymbols(tree, symbolIds, symbols);
+    }
+
+    // write to a temporary file and rename, so readers never see a partial
+    // cache; the file's name is unique, so concurrent writers cannot collide
+    File tmp = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+    boolean written = false;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.write(header);
+        writeVarInt(out, symbols.size());
+        for (String symbol : symbols) {
+          writeString(out, symbol);
+        }
+        writeVarInt(out, trees.size());
+        for (Tree<String> tree : trees) {
+          if (tree == null) {
+            writeVarInt(out, 0);
+          } else {
+            writeTree(out, tree, symbolIds);
+          }
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(cacheFile)) {
+        cacheFile.delete();
+        if (!tmp.renameTo(cacheFile)) {
+          throw new IOException("cannot rename " + tmp + " to " + cacheFile);
+        }
+      }
+      written = true;
+    } finally {
+      if (!written) tmp.delete();
+    }
+  }
+
+  private static void collectSymbols(Tree<String> tree, Map<String, Integer> symbolIds, List<String> symbols) {
+    if (!symbolIds.containsKey(tree.getLabel())) {
+      symbolIds.put(tree.getLabel(), symbols.size());
+      symbols.add(tree.getLabel());
+    }
+    for (Tree<String> child : tree.getChildren()) {
+      collectSymbols(child, symbolIds, symbols);
+    }
+  }
+
+  private static void writeTree(DataOutputStream out, Tree<String> tree, Map<String, Integer> symbolIds)
+      throws IOException {
+    writeVarInt(out, symbolIds.get(tree.getLabel()) + 1);
+    writeVarInt(out, tree.getChildren().size());
+    for (Tree<String> child : tree.getChildren()) {
+      writeTree(out, child, symbolIds);
+    }
+  }
+
+  /* Returns the cached trees, or null if the header does not match. */
+  private static List<Tree<String>> decode(byte[] buf, byte[] header) {
+    if (buf.length < header.length) return null;
+    for (int i = 0; i < header.length; i++) {
+      if (buf[i] != header[i]) return null;
+    }
+    Decoder in = new Decoder(buf, header.length);
+    int numSymbols = in.readVarInt();
+    String[] symbols = new String[numSymbols];
+    for (int s = 0; s < numSymbols; s++) {
+      symbols[s] = in.readString();
+    }
+    int numTrees = in.readVarInt();
+    List<Tree<String>> trees = new ArrayList<Tree<String>>(numTrees);
+    for (int t = 0; t < numTrees; t++) {
+      trees.add(in.readTree(symbols));
+    }
+    if (in.pos != buf.length) return null;
+    return trees;
+  }
+
+  private static class Decoder {
+    final byte[] buf;
+    int pos;
+
+    Decoder(byte[] buf, int pos) {
+      this.buf = buf;
+      this.pos = pos;
+    }
+
+    int readVarInt() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buf[pos++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) return value;
+      }
+    }
+
+    String readString() {
+      int length = readVarInt();
+      String s = new String(buf, pos, length, UTF8);
+      pos += length;
+      return s;
+    }
+
+    Tree<String> readTree(String[] symbols) {
+      int label = readVarInt() - 1;
+      if (label < 0) return null;
+      int arity = readVarInt();
+      if (arity == 0) return new Tree<String>(symbols[label]);
+      List<Tree<String>> children = new ArrayList<Tree<String>>(arity);
+      for (int c = 0; c < arity; c++) {
+        children.add(readTree(symbols));
+      }
+      return new Tree<String>(symbols[label], children);
+    }
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,206 @@
+package cs224n.ling;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import cs224n.util.Index;
+
+/**
+ * A list of trees stored as integers instead of Tree objects.  Every node
+ * of every tree is one slot in three parallel int arrays: its label's id in
+ * a shared Index of labels, its first child, and its next sibling (-1 for
+ * none).  That is 12 bytes a node, against a Tree, its child ArrayList and
+ * the list's array for each node of a Tree&lt;String&gt;.
+ *
+ * get(k) builds a fresh Tree&lt;String&gt; whose labels are the Index's
+ * canonical Strings, so trees are only materialized where code needs them.
+ * Code that walks the trees, such as the grammar and lexicon tallies and
+ * the evaluator, still does so one Tree at a time: the saving is in
+ * holding a treebank, not in processing it.
+ *
+ * set(k, tree) stores the new tree after all the others, and once the
+ * nodes of replaced trees make up half the store, moves the live trees
+ * down over them.  Null trees are allowed.  Like ArrayList, a treebank is
+ * not synchronized: any number of threads may read one that is no longer
+ * being modified, but writes need external synchronization.
+ */
+public class CompactTreebank extends AbstractList<Tree<String>> {
+
+  private static final int NONE = -1;
+
+  private final Index<String> labels;
+  private int[] label = new int[1024];
+  private int[] firstChild = new int[1024];
+  private int[] nextSibling = new int[1024];
+  private int numNodes;
+  private int garbageNodes;
+  private int[] roots = new int[64];
+  private int numTrees;
+
+  public CompactTreebank() {
+    this(new Index<String>());
+  }
+
+  /**
+   * @param labels label ids to use, extended with any new labels added;
+   *        may be shared by several treebanks on the same thread
+   */
+  public CompactTreebank(Index<String> labels) {
+    this.labels = labels;
+  }
+
+  public CompactTreebank(Collection<Tree<String>> trees) {
+    this();
+    addAll(trees);
+  }
+
+  public Index<String> getLabelIndex() {
+    return labels;
+  }
+
+  /**
+   * Number of nodes allocated, including those of trees replaced by set()
+   * that have not been compacted away yet.
+   */
+  public int getNodeCount() {
+    return numNodes;
+  }
+
+  public int size() {
+    return numTrees;
+  }
+
+  public Tree<String> get(int k) {
+    checkIndex(k);
+    return roots[k] == NONE ? null : decode(roots[k]);
+  }
+
+  public Tree<String> set(int k, Tree<String> tree) {
+    Tree<String> old = get(k);
+    if (roots[k] != NONE) garbageNodes += countNodes(roots[k]);
+    roots[k] = tree == null ? NONE : encode(tree);
+    if (garbageNodes > numNodes / 2) compact();
+    return old;
+  }
+
+  /**
+   * Appends a tree; trees can only be added at the end.
+   */
+  public void add(int k, Tree<String> tree) {
+    if (k != numTrees)
+      throw new UnsupportedOperationException("Trees can only be added at the end");
+    if (numTrees == roots.length) roots = Arrays.copyOf(roots, 2 * numTrees);
+    roots[numTrees++] = tree == null ? NONE : encode(tree);
+    modCount++;
+  }
+
+  /**
+   * Returns the words of tree k, without building the tree.
+   */
+  public List<String> getYield(int k) {
+    checkIndex(k);
+    List<String> words = new ArrayList<String>();
+    if (roots[k] != NONE) appendYield(roots[k], words);
+    return words;
+  }
+
+  private void appendYield(int node, List<String> words) {
+    if (firstChild[node] == NONE) {
+      words.add(labels.get(label[node]));
+      return;
+    }
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      appendYield(child, words);
+    }
+  }
+
+  /*
+   * Moves the nodes of the live trees, in tree order, down over those of
+   * replaced trees.  encode() writes each tree's nodes contiguously, so a
+   * tree moves as one block, with its links shifted by how far it moved.
+   */
+  private void compact() {
+    int live = numNodes - garbageNodes;
+    int[] newLabel = new int[Math.max(1024, 2 * live)];
+    int[] newFirstChild = new int[newLabel.length];
+    int[] newNextSibling = new int[newLabel.length];
+    int next = 0;
+    for (int k = 0; k < numTrees; k++) {
+      int root = roots[k];
+      if (root == NONE) continue;
+      int size = countNodes(root);
+      int shift = root - next;
+      for (int node = root; node < root + size; node++) {
+        newLabel[node - shift] = label[node];
+        newFirstChild[node - shift] = firstChild[node] == NONE ? NONE : firstChild[node] - shift;
+        newNextSibling[node - shift] = nextSibling[node] == NONE ? NONE : nextSibling[node] - shift;
+      }
+      roots[k] = next;
+      next += size;
+    }
+    label = newLabel;
+    firstChild = newFirstChild;
+    nextSibling = newNextSibling;
+    numNodes = next;
+    garbageNodes = 0;
+  }
+
+  private int countNodes(int node) {
+    int count = 1;
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      count += countNodes(child);
+    }
+    return count;
+  }
+
+  private void checkIndex(int k) {
+    if (k < 0 || k >= numTrees)
+      throw new IndexOutOfBoundsException("Tree " + k + " of " + numTrees);
+  }
+
+  /* Appends the nodes of a tree in pre-order, returning its root's slot. */
+  private int encode(Tree<String> tree) {
+    int id = labels.indexOf(tree.getLabel());
+    if (id < 0) {
+      labels.add(tree.getLabel());
+      id = labels.size() - 1;
+    }
+    if (numNodes == label.length) {
+      label = Arrays.copyOf(label, 2 * numNodes);
+      firstChild = Arrays.copyOf(firstChild, 2 * numNodes);
+      nextSibling = Arrays.copyOf(nextSibling, 2 * numNodes);
+    }
+    int node = numNodes++;
+    label[node] = id;
+    firstChild[node] = NONE;
+    nextSibling[node] = NONE;
+    int previous = NONE;
+    for (Tree<String> child : tree.getChildren()) {
+      int childNode = encode(child);
+      if (previous == NONE) {
+        firstChild[node] = childNode;
+      } else {
+        nextSibling[previous] = childNode;
+      }
+      previous = childNode;
+    }
+    return node;
+  }
+
+  private Tree<String> decode(int node) {
+    String nodeLabel = labels.get(label[node]);
+    if (firstChild[node] == NONE) return new Tree<String>(nodeLabel);
+    int arity = 0;
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      arity++;
+    }
+    List<Tree<String>> children = new ArrayList<Tree<String>>(arity);
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      children.add(decode(child));
+    }
+    return new Tree<String>(nodeLabel, children);
+  }
+}
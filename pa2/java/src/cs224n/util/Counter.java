@@ -173,6 +173,14 @@ public class Counter <E> implements Serializable {
     entries = mf.buildMap();
   }
 
+  /**
+   * For subclasses that store counts in their own structure; they must
+   * override every method that reads or writes entries.
+   */
+  protected Counter(Map<E, Double> entries) {
+    this.entries = entries;
+  }
+
   public static void main(String[] args) {
     Counter<String> counter = new Counter<String>();
     System.out.println(counter);
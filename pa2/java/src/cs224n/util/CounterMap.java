@@ -15,7 +15,7 @@ import java.util.Set;
  */
 public class CounterMap<K, V> {
 
-  private MapFactory<V, Double> mf;
+  private MapFactory<V, Double> mf; // null for OpenAddressingCounters
   private Map<K, Counter<V>> counterMap;
 
   // -----------------------------------------------------------------------
@@ -31,12 +31,20 @@ public class CounterMap<K, V> {
     counterMap = outerMF.buildMap();
   }
 
+  /**
+   * Builds a CounterMap whose sub-counters are OpenAddressingCounters,
+   * which count without boxing.
+   */
+  public static <K, V> CounterMap<K, V> withOpenAddressingCounters() {
+    return new CounterMap<K, V>(new MapFactory.HashMapFactory<K, Counter<V>>(), null);
+  }
+
   // -----------------------------------------------------------------------
 
   protected Counter<V> ensureCounter(K key) {
     Counter<V> valueCounter = counterMap.get(key);
     if (valueCounter == null) {
-      valueCounter = new Counter<V>(mf);
+      valueCounter = mf == null ? new OpenAddressingCounter<V>() : new Counter<V>(mf);
       counterMap.put(key, valueCounter);
     }
     return valueCounter;
@@ -0,0 +1,166 @@
+package cs224n.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A max-priority queue of int keys in [0, capacity) that supports raising
+ * a queued key's priority and testing whether a key is queued, without
+ * boxing: keys, priorities and each key's heap location all live in
+ * primitive arrays.  The queue also remembers which keys next() has taken
+ * off since the last clear().
+ *
+ * clear() is constant time, because locations are stamped with the
+ * generation they were written in, so one queue can be reused for many
+ * searches without reallocating or refilling its arrays.
+ */
+public class IntIndexedPriorityQueue {
+
+  private static final int ABSENT = -1;
+  private static final int REMOVED = -2;
+
+  private int[] heap = new int[16];
+  private double[] priorities = new double[16];
+  private int size;
+  private int[] locations;
+  private int[] stamps;
+  private int generation = 1;
+
+  /**
+   * @param capacity keys must be less than this; clear() can raise it
+   */
+  public IntIndexedPriorityQueue(int capacity) {
+    locations = new int[capacity];
+    stamps = new int[capacity];
+  }
+
+  /**
+   * Empties the queue and makes room for keys below capacity.  Only grows
+   * the arrays when capacity exceeds the current one.
+   */
+  public void clear(int capacity) {
+    if (capacity > locations.length) {
+      locations = new int[capacity];
+      stamps = new int[capacity];
+      generation = 1;
+    } else if (++generation == 0) {
+      Arrays.fill(stamps, 0);
+      generation = 1;
+    }
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean hasNext() {
+    return size > 0;
+  }
+
+  /**
+   * True if the key is currently queued.
+   */
+  public boolean contains(int key) {
+    return location(key) >= 0;
+  }
+
+  /**
+   * True if next() has returned the key since the last clear().
+   */
+  public boolean wasRemoved(int key) {
+    return location(key) == REMOVED;
+  }
+
+  /**
+   * Adds a key with the given priority, or raises the priority of a queued
+   * key if the new priority is higher.  Lower priorities are ignored.  A key
+   * that was removed is queued again.
+   *
+   * @return whether the queue changed
+   */
+  public boolean promote(int key, double priority) {
+    int loc = location(key);
+    if (loc >= 0) {
+      if (priorities[loc] >= priority) return false;
+      priorities[loc] = priority;
+      heapifyUp(loc);
+      return true;
+    }
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, 2 * size);
+      priorities = Arrays.copyOf(priorities, 2 * size);
+    }
+    heap[size] = key;
+    priorities[size] = priority;
+    setLocation(key, size);
+    heapifyUp(size++);
+    return true;
+  }
+
+  /**
+   * Returns the priority of the highest-priority key.
+   */
+  public double getPriority() {
+    if (size == 0) throw new NoSuchElementException();
+    return priorities[0];
+  }
+
+  /**
+   * Removes and returns the highest-priority key.
+   */
+  public int next() {
+    if (size == 0) throw new NoSuchElementException();
+    int first = heap[0];
+    setLocation(first, REMOVED);
+    if (--size > 0) {
+      heap[0] = heap[size];
+      priorities[0] = priorities[size];
+      setLocation(heap[0], 0);
+      heapifyDown(0);
+    }
+    return first;
+  }
+
+  private int location(int key) {
+    return stamps[key] == generation ? locations[key] : ABSENT;
+  }
+
+  private void setLocation(int key, int loc) {
+    locations[key] = loc;
+    stamps[key] = generation;
+  }
+
+  private void heapifyUp(int loc) {
+    while (loc > 0) {
+      int parent = (loc - 1) / 2;
+      if (priorities[loc] <= priorities[parent]) return;
+      swap(loc, parent);
+      loc = parent;
+    }
+  }
+
+  private void heapifyDown(int loc) {
+    while (true) {
+      int max = loc;
+      int left = 2 * loc + 1;
+      int right = left + 1;
+      if (left < size && priorities[left] > priorities[max]) max = left;
+      if (right < size && priorities[right] > priorities[max]) max = right;
+      if (max == loc) return;
+      swap(loc, max);
+      loc = max;
+    }
+  }
+
+  private void swap(int loc1, int loc2) {
+    int key = heap[loc1];
+    double priority = priorities[loc1];
+    heap[loc1] = heap[loc2];
+    priorities[loc1] = priorities[loc2];
+    heap[loc2] = key;
+    priorities[loc2] = priority;
+    setLocation(heap[loc1], loc1);
+    setLocation(heap[loc2], loc2);
+  }
+}
@@ -0,0 +1,105 @@
+package cs224n.util;
+
+/**
+ * A histogram of non-negative long values, such as latencies in
+ * nanoseconds, in the layout of an HDR histogram: values below 128 are
+ * counted exactly, and each power of two above that is split into 64
+ * equal buckets.  Every recorded value is thus kept to within 1/64 of
+ * itself, in under 30KB for the whole range of a long, and recording is a
+ * couple of shifts and an array increment.
+ *
+ * Percentiles report the highest value of the bucket they fall in, capped
+ * at the largest value recorded, so they never understate a latency.
+ * Histograms are not thread-safe.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int EXACT = 2 * SUB_BUCKETS;
+  private static final int NUM_BUCKETS = EXACT + (64 - SUB_BUCKET_BITS - 2) * SUB_BUCKETS;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+  private long totalCount;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  public void recordValue(long value) {
+    if (value < 0)
+      throw new IllegalArgumentException("Negative value " + value);
+    counts[bucketOf(value)]++;
+    totalCount++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Adds every value recorded in another histogram to this one.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /** Exact sum of the recorded values. */
+  public long getSum() {
+    return sum;
+  }
+
+  public double getMean() {
+    return totalCount == 0 ? 0.0 : sum / (double) totalCount;
+  }
+
+  /** Smallest value recorded, or 0 if none. */
+  public long getMin() {
+    return totalCount == 0 ? 0 : min;
+  }
+
+  /** Largest value recorded, or 0 if none. */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * The value that percentile percent of the recorded values are at or
+   * below, to within the histogram's precision.
+   * @param percentile between 0 and 100
+   * @return the value, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) return Math.min(max, highestValueIn(i));
+    }
+    return max;
+  }
+
+  /* Values below EXACT have a bucket each; a larger value is shifted down
+   * into [SUB_BUCKETS, EXACT) and bucketed by the shift and what is left. */
+  private static int bucketOf(long value) {
+    if (value < EXACT) return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  private static long highestValueIn(int bucket) {
+    if (bucket < EXACT) return bucket;
+    int shift = (bucket - EXACT) / SUB_BUCKETS + 1;
+    long subBucket = (bucket - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,200 @@
+package cs224n.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Counter that stores its counts as primitive doubles instead of boxed
+ * Doubles in a HashMap.  Keys and counts live in parallel arrays in
+ * insertion order, found through an open-addressing table of indices with
+ * linear probing, so incrementCount() allocates nothing once a key is
+ * present.  The total is kept as a running sum, so totalCount() is
+ * constant time.  keySet() iterates in insertion order.
+ *
+ * Counters have no way to remove a key, so neither does this one; the
+ * key set is read-only.
+ */
+public class OpenAddressingCounter<E> extends Counter<E> {
+  private static final long serialVersionUID = 1L;
+
+  private static final int EMPTY = -1;
+
+  private Object[] keys;
+  private int[] hashes;
+  private double[] counts;
+  private int[] slots;
+  private int size;
+  private double total;
+
+  public OpenAddressingCounter() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize number of keys to make room for before growing
+   */
+  public OpenAddressingCounter(int expectedSize) {
+    super((Map<E, Double>) null);
+    int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) - 1) << 2);
+    keys = new Object[capacity / 2];
+    hashes = new int[capacity / 2];
+    counts = new double[capacity / 2];
+    slots = new int[capacity];
+    Arrays.fill(slots, EMPTY);
+  }
+
+  public Set<E> keySet() {
+    return new AbstractSet<E>() {
+      public Iterator<E> iterator() {
+        return new Iterator<E>() {
+          private int next = 0;
+
+          public boolean hasNext() {
+            return next < size;
+          }
+
+          @SuppressWarnings("unchecked")
+          public E next() {
+            if (next >= size) throw new NoSuchElementException();
+            return (E) keys[next++];
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      public int size() {
+        return size;
+      }
+
+      @SuppressWarnings("unchecked")
+      public boolean contains(Object key) {
+        return indexOf((E) key) >= 0;
+      }
+    };
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean containsKey(E key) {
+    return indexOf(key) >= 0;
+  }
+
+  public double getCount(E key) {
+    int index = indexOf(key);
+    return index < 0 ? 0.0 : counts[index];
+  }
+
+  public void setCount(E key, double count) {
+    int index = insert(key);
+    total += count - counts[index];
+    counts[index] = count;
+  }
+
+  public void incrementCount(E key, double increment) {
+    int index = insert(key);
+    counts[index] += increment;
+    total += increment;
+  }
+
+  /**
+   * The running total of all counts.  Constant time, but because it is
+   * summed as counts change it can differ in the last bits from a fresh
+   * sum of the counts.
+   */
+  public double totalCount() {
+    return total;
+  }
+
+  @SuppressWarnings("unchecked")
+  public E argMax() {
+    int best = -1;
+    for (int i = 0; i < size; i++) {
+      if (best < 0 || counts[i] > counts[best]) best = i;
+    }
+    return best < 0 ? null : (E) keys[best];
+  }
+
+  @SuppressWarnings("unchecked")
+  public PriorityQueue<E> asPriorityQueue() {
+    PriorityQueue<E> pq = new PriorityQueue<E>(size);
+    for (int i = 0; i < size; i++) {
+      pq.add((E) keys[i], counts[i]);
+    }
+    return pq;
+  }
+
+  /* Index of key in keys and counts, or -1 if it is absent. */
+  private int indexOf(E key) {
+    int hash = hash(key);
+    int mask = slots.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      int index = slots[slot];
+      if (index == EMPTY) return -1;
+      if (hashes[index] == hash && equal(keys[index], key)) return index;
+    }
+  }
+
+  /* Index of key in keys and counts, adding it with count zero if absent. */
+  private int insert(E key) {
+    int hash = hash(key);
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+      int index = slots[slot];
+      if (hashes[index] == hash && equal(keys[index], key)) return index;
+    }
+    if (size == keys.length) {
+      grow();
+      return insert(key);
+    }
+    keys[size] = key;
+    hashes[size] = hash;
+    counts[size] = 0.0;
+    slots[slot] = size;
+    return size++;
+  }
+
+  /* Doubles the arrays, keeping the table at most half full. */
+  private void grow() {
+    keys = Arrays.copyOf(keys, 2 * keys.length);
+    hashes = Arrays.copyOf(hashes, 2 * hashes.length);
+    counts = Arrays.copyOf(counts, 2 * counts.length);
+    slots = new int[2 * slots.length];
+    Arrays.fill(slots, EMPTY);
+    int mask = slots.length - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = hashes[i] & mask;
+      while (slots[slot] != EMPTY) slot = (slot + 1) & mask;
+      slots[slot] = i;
+    }
+  }
+
+  private static int hash(Object key) {
+    if (key == null) return 0;
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == b || (a != null && a.equals(b));
+  }
+
+  public static void main(String[] args) {
+    Counter<String> counter = new OpenAddressingCounter<String>();
+    counter.incrementCount("planets", 7);
+    counter.incrementCount("planets", 1);
+    counter.setCount("suns", 1);
+    counter.setCount("aliens", 0);
+    System.out.println(counter);
+    System.out.println("Total: " + counter.totalCount());
+  }
+}